@@ -11,19 +11,25 @@ ZKCFG="$ZK/conf/zoo.cfg"
 
 # Paths do seu programa
 PATHS=(
-  /exam_queue
-  /locks
-  /gabarito
-  /results
-  /barrier
-  /election
-  /final
-  /leader
+  /urna_aberta
+  /fila_votos
+  /lock_processamento
+  /urna_fechada
+  /eleicao_coordenador
+  /coordenador_votacao
+  /resultado_votacao
+  /votos_invalidos
+  /votos_contados
+  /auditoria_votacao
+  /resultado_decidido
+  /checkpoint_votacao
+  /deltas_votacao
+  /eleicoes
 )
 
 usage() {
   echo "Uso: $0 [--full]"
-  echo "  (sem flags)   => mata ExamSystem e deleta nós do app no ZooKeeper"
+  echo "  (sem flags)   => mata SistemaVotacao e deleta nós do app no ZooKeeper"
   echo "  --full        => reset TOTAL: apaga dataDir do ZK e reinicia"
 }
 
@@ -41,9 +47,9 @@ delpath() {
   fi
 }
 
-# -------- matar processos ExamSystem
-echo "[1/3] Matando processos ExamSystem..."
-pkill -f ExamSystem || true
+# -------- matar processos SistemaVotacao
+echo "[1/3] Matando processos SistemaVotacao..."
+pkill -f src.votacao.SistemaVotacao || true
 
 if [[ "${1:-}" == "--full" ]]; then
   echo "[2/3] Reset TOTAL do ZooKeeper (apagando dataDir)..."
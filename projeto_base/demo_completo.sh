@@ -108,6 +108,7 @@ run_voting_node() {
     # Executar em background e capturar saída
     java -cp "$CP_ZK:src" \
          -Dlogback.configurationFile=file:$ZK_HOME/conf/logback.xml \
+         -Dvotacao.no=$node_id \
          src.votacao.SistemaVotacao > "$log_file" 2>&1 &
     
     local pid=$!
@@ -192,6 +193,13 @@ main() {
     
     # Limpar logs anteriores
     rm -f /tmp/voting_node_*.log
+
+    # Reinicia a eleição (fila, resultados e checkpoints da execução anterior):
+    # passo do operador, os nós nunca apagam votos já enfileirados
+    echo " Reiniciando a eleição..."
+    cd "$PROJETO_BASE"
+    java -cp "$CP_ZK:src" -Dlogback.configurationFile=file:$ZK_HOME/conf/logback.xml \
+         src.votacao.VotingLifecycle reiniciar
     
     # Executar múltiplos nós
     echo " Iniciando nós de votação..."
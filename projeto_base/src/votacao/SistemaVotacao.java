@@ -2,20 +2,22 @@ package src.votacao;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.concurrent.CountDownLatch;
+import java.util.Set;
+import java.util.StringJoiner;
 
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Op;
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.data.Stat;
-import org.w3c.dom.events.Event;
 
 /**
  * Sistema principal de votação distribuída usando Apache ZooKeeper
@@ -26,49 +28,152 @@ import org.w3c.dom.events.Event;
  * - Locks: Processamento exclusivo de votos
  * - Leader Election: Eleição de coordenador para resultado final
  * - Agregação global: consolidação via /resultado_votacao/{nodeId}
+ * - Consulta: placar, vencedor e líder servidos de um snapshot em memória
+ * - Verificação: votos assinados (HMAC) verificados em paralelo antes da contagem
+ * - Auditoria: raiz de Merkle dos votos contados publicada com a contagem local
+ * - Decisão antecipada: vencedor anunciado assim que não pode mais ser alcançado
+ * - Gateway: terminais externos enviam votos via TCP enquanto a urna está aberta
+ * - Namespaces: várias eleições simultâneas no mesmo ensemble (/eleicoes/{id})
+ * - Apuração por dimensão: votos "secao=12,regiao=Norte@A" contados por seção,
+ *   região e questão, com vencedor por dimensão e empates desfeitos em ordem alfabética
+ * - Checkpoints: o líder consolida os deltas de cada lote em /checkpoint_votacao
+ *   e um sucessor retoma do último checkpoint
  */
 public class SistemaVotacao {
 
   private static final String ZK_ADDRESS = "localhost:2181";
-  private static final String BARRIER_PATH = "/urna_fechada";
-  private static final String QUEUE_PATH = "/fila_votos";
-  private static final String LOCK_PATH = "/lock_processamento";
-  private static final String ELECTION_PATH = "/eleicao_coordenador";
-  private static final String LEADER_PATH = "/coordenador_votacao";
-  private static final String RESULTADO_PATH = "/resultado_votacao";
+  private static final int TAMANHO_LOTE = 64;
+  private static final int CANDIDATOS_LISTADOS = 20;
+  private static final long INTERVALO_CHECKPOINT_MS = 200;
+  private static final int AMOSTRA_AUDITORIA = 16;
+  private static final int LIMITE_RESUMO_VENCEDORES = 16 * 1024;
+  private static final int BALDES_MARCADORES = 256;
+  private static final String[] VOTOS_DEMO = { "A", "B", "A", "C", "B", "A", "C", "A", "B", "A" };
 
   private int nodeId;
+  private final VotingNamespace namespace;
+  private final int tamanhoBarreira;
+
+  // Conexão compartilhada, ou própria do nó quando cada primitiva abre a sua
+  private VotingConnection conexao;
+  private final boolean conexaoCompartilhada;
+
+  // Pausas de demonstração e votos produzidos pelo líder
+  private boolean modoDemo = true;
+  private boolean consultaAtiva = true;
+  private String[] votos = VOTOS_DEMO;
+
+  // Verificação de integridade (null = votos sem assinatura)
+  private VotingVerifier verificador = VotingVerifier.doAmbiente();
+
   private VotingBarrier barrier;
   private VotingQueue queue;
   private VotingLock lock;
   private VotingLeaderElection election;
+  private VotingQueryService consulta;
+  private VotingCheckpoint checkpoint;
+
+  // Fechamento da urna (a partir daí o líder faz checkpoints)
+  private volatile boolean urnaFechada = false;
+  private volatile VotingEarlyDecision decisao;
 
-  // Conexão direta para publicar/ler resultados
-  private ZooKeeper zk;
+  // Contadores locais de votos (total e por dimensão)
+  private final VotingTally contadorLocal = new VotingTally();
+  private VotingTally resultadoFinal;
+  private final List<String> votosInvalidos = new ArrayList<>();
 
-  // Contadores locais de votos
-  private final Map<String, Integer> contadorLocal = new HashMap<>();
+  // Árvore de Merkle dos votos contados (idVoto|candidato), na ordem de contagem,
+  // e as folhas em si, para publicar as provas de inclusão sorteadas
+  private final VotingMerkleTree arvore = new VotingMerkleTree();
+  private final List<String[]> folhasArvore = new ArrayList<>();
 
   public SistemaVotacao() {
-    this.nodeId = new Random().nextInt(10000);
-    System.out.println("Iniciando nó de votação ID: " + nodeId);
+    // ID fixo com -Dvotacao.no (IDs aleatórios podem colidir); 3 nós para iniciar
+    this(null, VotingNamespace.padrao(), Integer.getInteger("votacao.no", new Random().nextInt(10000)), 3);
+  }
+
+  /**
+   * Nó de votação de uma eleição específica
+   * 
+   * @param conexao         Conexão compartilhada (null para conexões próprias)
+   * @param namespace       Namespace da eleição
+   * @param nodeId          ID único do nó na eleição
+   * @param tamanhoBarreira Número de nós que devem participar da contagem
+   */
+  public SistemaVotacao(VotingConnection conexao, VotingNamespace namespace, int nodeId, int tamanhoBarreira) {
+    this.conexao = conexao;
+    this.conexaoCompartilhada = conexao != null;
+    this.namespace = namespace;
+    this.nodeId = nodeId;
+    this.tamanhoBarreira = tamanhoBarreira;
+    System.out.println("Iniciando nó de votação ID: " + nodeId + " (eleição " + namespace + ")");
+  }
+
+  /** Define os votos que o nó produz caso seja eleito líder */
+  public void setVotos(String[] votos) {
+    this.votos = votos;
+  }
+
+  /** Ativa/desativa as pausas de demonstração entre operações */
+  public void setModoDemo(boolean modoDemo) {
+    this.modoDemo = modoDemo;
+  }
+
+  /** Define o verificador de integridade (null desativa a verificação) */
+  public void setVerificador(VotingVerifier verificador) {
+    this.verificador = verificador;
+  }
+
+  /** Ativa/desativa o serviço de consulta deste nó */
+  public void setConsultaAtiva(boolean consultaAtiva) {
+    this.consultaAtiva = consultaAtiva;
+  }
+
+  public int getNodeId() {
+    return nodeId;
   }
 
   /** Inicializa todos os componentes do sistema distribuído */
   public void inicializar() throws IOException, KeeperException, InterruptedException {
     System.out.println("Conectando ao ZooKeeper...");
 
-    // Conexão própria do SistemaVotacao (para paths auxiliares)
-    this.zk = connectZk(ZK_ADDRESS);
+    // Conexão do SistemaVotacao (para paths auxiliares)
+    if (!conexaoCompartilhada) {
+      conexao = new VotingConnection(ZK_ADDRESS).aguardarConexao();
+    }
 
-    // Garante o path de resultados
-    ensurePath(RESULTADO_PATH);
+    // Garante a árvore da eleição (uma transação, sem apagar nada)
+    new VotingLifecycle(conexao).preparar(namespace);
+    checkpoint = new VotingCheckpoint(conexao, namespace, INTERVALO_CHECKPOINT_MS);
 
-    // Inicializar componentes distribuídos (suas classes atuais)
-    barrier = new VotingBarrier(ZK_ADDRESS, BARRIER_PATH, 3); // 3 nós para iniciar
-    queue = new VotingQueue(ZK_ADDRESS, QUEUE_PATH);
-    lock = new VotingLock(ZK_ADDRESS, LOCK_PATH);
-    election = new VotingLeaderElection(ZK_ADDRESS, ELECTION_PATH, LEADER_PATH, nodeId);
+    // Inicializar componentes distribuídos
+    if (conexaoCompartilhada) {
+      barrier = new VotingBarrier(conexao, namespace.barrier(), tamanhoBarreira);
+      queue = new VotingQueue(conexao, namespace.fila());
+      lock = new VotingLock(conexao, namespace.lock());
+      election = new VotingLeaderElection(conexao, namespace.eleicao(), namespace.coordenador(), nodeId);
+    } else {
+      barrier = new VotingBarrier(ZK_ADDRESS, namespace.barrier(), tamanhoBarreira);
+      queue = new VotingQueue(ZK_ADDRESS, namespace.fila());
+      lock = new VotingLock(ZK_ADDRESS, namespace.lock());
+      election = new VotingLeaderElection(ZK_ADDRESS, namespace.eleicao(), namespace.coordenador(), nodeId);
+    }
+    // Votos só entram na fila enquanto o líder mantém a urna aberta
+    queue.setUrna(namespace.urnaAberta());
+    election.setAoAssumir(this::assumirCoordenacao);
+    election.setAoPerder(this::deixarCoordenacao);
+
+    // Serviço de consulta mantido por watches (porta HTTP opcional)
+    if (consultaAtiva) {
+      consulta = conexaoCompartilhada
+          ? new VotingQueryService(conexao, namespace.resultado(), namespace.coordenador(), namespace.fila())
+          : new VotingQueryService(ZK_ADDRESS, namespace.resultado(), namespace.coordenador(), namespace.fila());
+      consulta.iniciar();
+      Integer portaConsulta = Integer.getInteger("votacao.consulta.porta");
+      if (portaConsulta != null) {
+        consulta.iniciarHttp(portaConsulta);
+      }
+    }
 
     System.out.println("Componentes inicializados com sucesso.");
   }
@@ -92,18 +197,51 @@ public class SistemaVotacao {
 
   /** Execução específica para o nó líder */
   private void executarComoLider() throws KeeperException, InterruptedException {
+    // A contagem de uma execução anterior (resultados, deltas, checkpoint,
+    // anúncio antecipado) é descartada antes da barreira; a fila fica, pois
+    // pode ter votos já confirmados aos eleitores. Os participantes só
+    // publicam depois da barreira
+    int descartados = new VotingLifecycle(conexao).descartarApuracao(namespace);
+    if (descartados > 0) {
+      System.out.println("Descartados " + descartados + " znodes da contagem de uma execução anterior");
+    }
+    abrirUrna();
+
     // (1) Alimenta a fila
     System.out.println("Adicionando votos à queue...");
-    String[] votos = { "A", "B", "A", "C", "B", "A", "C", "A", "B", "A" };
-    for (String voto : votos) {
-      queue.produce(voto);
-      Thread.sleep(100);
+    List<String> lote = new ArrayList<>();
+    for (int i = 0; i < votos.length; i++) {
+      // Com chave configurada, o voto é assinado na ingestão
+      String voto = verificador != null ? verificador.assinar(nodeId + "-" + i, votos[i]) : votos[i];
+      if (modoDemo) {
+        queue.produce(voto);
+        Thread.sleep(100);
+        continue;
+      }
+      // Fora do modo demo os votos entram em lotes (um multi por lote)
+      lote.add(voto);
+      if (lote.size() == TAMANHO_LOTE || i == votos.length - 1) {
+        queue.produceLote(lote);
+        lote.clear();
+      }
+    }
+    // Terminais externos votam pelo gateway enquanto a urna está aberta
+    Integer portaGateway = Integer.getInteger("votacao.gateway.porta");
+    if (portaGateway != null) {
+      receberVotosExternos(portaGateway, Long.getLong("votacao.gateway.duracao", 10000));
     }
     System.out.println("Todos os votos foram adicionados à fila. Prontos para serem processados...");
 
-    // (2) Libera a barreira para contagem
+    // (2) Fecha a urna (nenhum produtor grava depois disso) e libera a barreira
+    fecharUrna();
     System.out.println("Liberando barreira - Urnas fechadas prontas para contagem.");
     barrier.enter();
+    urnaFechada = true;
+    checkpoint.iniciar();
+
+    // Com a urna fechada, o vencedor pode ser anunciado antes do fim da contagem
+    decisao = new VotingEarlyDecision(conexao, namespace, checkpoint, 100);
+    decisao.iniciar();
 
     // (3) Processa como qualquer nó
     processarVotos();
@@ -111,18 +249,108 @@ public class SistemaVotacao {
     // (4) Publica a contagem local do líder
     publicarContagemLocal();
 
-    // (5) Aguarda os demais publicarem
-    Thread.sleep(3000);
+    // A sessão pode ter expirado durante a contagem e outro nó assumido
+    if (!election.isLeader()) {
+      System.out.println("Liderança perdida durante a contagem - o novo coordenador compila o resultado");
+      aguardarResultadoFinal();
+      return;
+    }
+
+    // (5) Aguarda os demais concluírem (no máximo 3s)
+    boolean todosConcluidos = checkpoint.aguardarConcluidos(tamanhoBarreira, 3000);
 
     // (6) Agrega tudo e anuncia
+    deixarCoordenacao();
     compilarResultadoFinal();
+    if (todosConcluidos) {
+      descartarMarcadores();
+    }
     System.out.println("Final.");
   }
 
+  /**
+   * Chamado quando o nó assume a liderança. Se a contagem já começou (o líder
+   * anterior caiu), retoma do último checkpoint e segue gravando checkpoints
+   */
+  private void assumirCoordenacao() {
+    if (!urnaFechada) {
+      return;
+    }
+    System.out.println("Assumindo a coordenação: retomando do último checkpoint...");
+    try {
+      checkpoint.iniciar();
+      // A urna já fechou: a decisão antecipada volta com o novo coordenador
+      VotingEarlyDecision anterior = decisao;
+      if (anterior != null) {
+        anterior.parar();
+      }
+      decisao = new VotingEarlyDecision(conexao, namespace, checkpoint, 100);
+      decisao.iniciar();
+    } catch (KeeperException e) {
+      System.err.println("Erro ao restaurar checkpoint: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Interrompe o trabalho de coordenação em segundo plano (checkpoints e
+   * decisão antecipada): chamado ao perder a liderança e antes da compilação
+   */
+  private void deixarCoordenacao() {
+    checkpoint.parar();
+    VotingEarlyDecision atual = decisao;
+    if (atual != null) {
+      atual.parar();
+    }
+  }
+
+  /** Cria o znode da urna aberta, exigido pelo multi de cada produtor */
+  private void abrirUrna() throws KeeperException, InterruptedException {
+    try {
+      conexao.executar(zk -> zk.create(namespace.urnaAberta(), new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
+          CreateMode.PERSISTENT));
+    } catch (KeeperException.NodeExistsException e) {
+      // Aberta por uma execução anterior que não chegou a fechá-la
+    }
+    System.out.println("Urna aberta em " + namespace.urnaAberta());
+  }
+
+  /**
+   * Remove o znode da urna aberta: a partir daqui o Op.check de qualquer
+   * produtor falha, então os votos na fila são os únicos que serão contados
+   */
+  private void fecharUrna() throws KeeperException, InterruptedException {
+    try {
+      conexao.executar(zk -> {
+        zk.delete(namespace.urnaAberta(), -1);
+        return null;
+      });
+    } catch (KeeperException.NoNodeException e) {
+      // Já fechada
+    }
+    System.out.println("Urna fechada: a fila não aceita mais votos");
+  }
+
+  /** Mantém o gateway de ingestão aberto pelo tempo indicado e fecha a urna */
+  private void receberVotosExternos(int porta, long duracaoMs) throws InterruptedException {
+    VotingGateway gateway;
+    try {
+      gateway = new VotingGateway(porta, queue, verificador, null, 4 * TAMANHO_LOTE, 5);
+    } catch (IOException e) {
+      System.err.println("Erro ao iniciar gateway de votos: " + e.getMessage());
+      return;
+    }
+    gateway.iniciar();
+    Thread.sleep(duracaoMs);
+    gateway.parar();
+  }
+
   /** Execução específica para nós participantes */
   private void executarComoParticipante() throws KeeperException, InterruptedException {
     System.out.println("Aguardando liberação da urna...");
     barrier.enter();
+    urnaFechada = true;
     System.out.println("Urna liberada! Iniciando contagem...");
 
     processarVotos();
@@ -130,124 +358,520 @@ public class SistemaVotacao {
     // Publica contagem local para o líder agregar
     publicarContagemLocal();
 
+    // Se o líder caiu durante a contagem, o sucessor na eleição compila o resultado
+    if (election.isLeader()) {
+      System.out.println("Promovido a coordenador durante a contagem - compilando resultado final...");
+      checkpoint.iniciar();
+      boolean todosConcluidos = checkpoint.aguardarConcluidos(tamanhoBarreira, 3000);
+      deixarCoordenacao();
+      compilarResultadoFinal();
+      if (todosConcluidos) {
+        descartarMarcadores();
+      }
+      return;
+    }
+
     // Simples espera pelo anúncio (poderia ser um watch em um znode de "final")
     aguardarResultadoFinal();
   }
 
-  /** Processa votos da fila com lock distribuído */
+  /** Processa votos da fila em lotes: leitura com lock, verificação, contagem e consumo atômico */
   private void processarVotos() throws KeeperException, InterruptedException {
     System.out.println("Iniciando processamento de votos...");
+    int tamanhoLote = modoDemo ? 1 : TAMANHO_LOTE;
 
     while (true) {
+      List<VotingQueue.Item> lote;
       if (lock.acquire()) {
         try {
-          String voto = queue.consume();
-          if (voto == null) {
-            System.out.println("Queue vazia - processamento concluído.");
-            break;
+          lote = queue.lerLote(tamanhoLote);
+          if (!lote.isEmpty()) {
+            // O lote só sai da fila no multi que publica a sua contagem: se o
+            // nó cair antes, os votos continuam na fila para os demais
+            lote = consumirLote(lote);
+            if (lote.isEmpty()) {
+              continue; // Outro nó levou o lote (ou o lock se perdeu)
+            }
           }
-          contadorLocal.put(voto, contadorLocal.getOrDefault(voto, 0) + 1);
-          System.out.println("Processado voto: " + voto + " (Total urna local: " + contadorLocal + ")");
-          Thread.sleep(200);
         } finally {
           lock.release();
         }
       } else {
         Thread.sleep(80);
+        continue;
       }
+
+      if (lote.isEmpty()) {
+        System.out.println("Queue vazia - processamento concluído.");
+        break;
+      }
+      System.out.println("Processados " + lote.size() + " votos (Total urna local: " + contadorLocal + ")");
+      if (modoDemo)
+        Thread.sleep(200);
     }
 
     System.out.println("Nó" + nodeId + " finalizou processamento!");
     System.out.println("Contagem local: " + contadorLocal);
+    if (verificador != null) {
+      System.out.println("Verificação: " + verificador.estatisticas() + " | inválidos: " + votosInvalidos.size());
+    }
   }
 
-  /** Publica a contagem local em /resultado_votacao/{nodeId} */
+  /**
+   * Conta o lote e o retira da fila no mesmo multi que publica a contagem
+   * acumulada, o delta do lote, os votos rejeitados do lote e um marcador em
+   * /votos_contados para cada idVoto contado. Se parte do lote já saiu da
+   * fila, desfaz a contagem e repete com o que restou; se um idVoto já foi
+   * contado antes, o voto passa a ser rejeitado como repetido
+   *
+   * @param lote Votos lidos do início da fila, em ordem FIFO
+   * @return Votos consumidos por este nó (vazio se outro nó levou o lote ou
+   *         se o lock se perdeu)
+   */
+  private List<VotingQueue.Item> consumirLote(List<VotingQueue.Item> lote)
+      throws KeeperException, InterruptedException {
+    Set<String> repetidos = new HashSet<>();
+    while (!lote.isEmpty()) {
+      long folhas = arvore.getTamanho();
+      int invalidos = votosInvalidos.size();
+      List<String> aceitos = new ArrayList<>();
+      VotingTally parcial = contarLote(lote, repetidos, aceitos);
+      // Só o total acumulado: as colunas por dimensão vão no delta do lote
+      // (pequeno) e na contagem final, fora do caminho de cada lote
+      VotingTally acumulado = somarTotais(contadorLocal, parcial);
+
+      // A árvore de Merkle acompanha a contagem para auditoria
+      long chave = VotingConnection.sequencia(lote.get(0).getId());
+      Map<String, String> metadados = new HashMap<>();
+      metadados.put("merkle", arvore.resumo());
+      metadados.put("lote", Long.toString(chave));
+      // O delta leva a nova raiz e a prova de que ela estende a anterior: o
+      // checkpoint do líder confere a cadeia de raízes de cada nó
+      Map<String, String> metadadosLote = new HashMap<>();
+      metadadosLote.put("merkle", arvore.resumo());
+      metadadosLote.put("consistencia",
+          VotingMerkleTree.provaEmHex(arvore.provaConsistencia(folhas, arvore.getTamanho())));
+      parcial.publicarDimensoes(metadadosLote);
+      metadadosLote.put("sequencia", Long.toString(VotingConnection.sequencia(lote.get(lote.size() - 1).getId())));
+
+      // Marcadores dos votos contados e rejeitados do lote vão no mesmo multi,
+      // que só é aplicado se este nó ainda detém o lock
+      Op cerca = lock.verificacao();
+      List<Op> consumo = new ArrayList<>();
+      consumo.add(cerca);
+      consumo.addAll(queue.remocoes(lote));
+      for (String idVoto : aceitos) {
+        consumo.add(Op.create(marcador(idVoto), new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+      }
+      String invalidosPath = namespace.invalidos() + "/" + nodeId + "-" + String.format("%010d", chave);
+      if (votosInvalidos.size() > invalidos) {
+        byte[] ids = String.join(";", votosInvalidos.subList(invalidos, votosInvalidos.size()))
+            .getBytes(StandardCharsets.UTF_8);
+        consumo.add(Op.create(invalidosPath, ids, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+      }
+
+      String falha = checkpoint.publicarLote(nodeId, chave, consumo, serializeContagem(acumulado, metadados),
+          serializeContagem(parcial, metadadosLote));
+      if (falha == null) {
+        contadorLocal.somar(parcial);
+        return lote;
+      }
+      // Nada foi aplicado: desfaz a contagem e descobre o que impediu o multi
+      arvore.truncar(folhas);
+      folhasArvore.subList((int) folhas, folhasArvore.size()).clear();
+      votosInvalidos.subList(invalidos, votosInvalidos.size()).clear();
+      ZooKeeper zk = conexao.getZk();
+      if (falha.equals(cerca.getPath())) {
+        System.out.println("Lock perdido com a sessão expirada - lote devolvido à fila");
+        return new ArrayList<>();
+      } else if (falha.startsWith(namespace.contados() + "/")) {
+        if (zk.exists(falha, false) != null) {
+          repetidos.add(falha.substring(falha.lastIndexOf('/') + 1));
+        } else {
+          ensurePath(namespace.contados());
+          ensurePath(falha.substring(0, falha.lastIndexOf('/')));
+        }
+      } else if (falha.equals(invalidosPath)) {
+        ensurePath(namespace.invalidos());
+      } else {
+        // Outro nó retirou parte do lote: recomeça com o que restou
+        lote = queue.aindaNaFila(lote);
+      }
+    }
+    return lote;
+  }
+
+  private void adicionarFolha(String idVoto, String candidato) {
+    arvore.adicionar(idVoto, candidato);
+    folhasArvore.add(new String[] { idVoto, candidato });
+  }
+
+  /** Apuração só com a contagem total das apurações dadas, sem as dimensões */
+  private static VotingTally somarTotais(VotingTally... apuracoes) {
+    VotingTally totais = new VotingTally();
+    for (VotingTally apuracao : apuracoes) {
+      for (Map.Entry<String, Integer> e : apuracao.contagem().entrySet()) {
+        totais.adicionar(VotingTally.TOTAL, e.getKey(), e.getValue());
+      }
+    }
+    return totais;
+  }
+
+  /**
+   * Marcador de um idVoto já contado (o idVoto vem do eleitor e pode ter '/'),
+   * em um de {@link #BALDES_MARCADORES} baldes: a lista de filhos de cada
+   * balde continua abaixo do jute.maxbuffer mesmo com milhões de votos
+   */
+  private String marcador(String idVoto) {
+    String id = marcadorId(idVoto);
+    return namespace.contados() + "/" + String.format("%02x", Math.floorMod(id.hashCode(), BALDES_MARCADORES)) + "/" + id;
+  }
+
+  private static String marcadorId(String idVoto) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(idVoto.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Verifica o lote (se houver chave) e conta os votos válidos
+   *
+   * @param repetidos Marcadores de idVoto já contados em lotes anteriores
+   * @param aceitos   Recebe o idVoto de cada voto assinado contado
+   */
+  private VotingTally contarLote(List<VotingQueue.Item> lote, Set<String> repetidos, List<String> aceitos) {
+    VotingTally parcial = new VotingTally();
+    if (verificador == null) {
+      for (VotingQueue.Item item : lote) {
+        parcial.adicionar(item.getVoto());
+        adicionarFolha(item.getId(), item.getVoto());
+      }
+      return parcial;
+    }
+
+    VotingVerifier.Resultado resultado = verificador.verificar(lote);
+    for (VotingQueue.Item item : resultado.getInvalidos()) {
+      System.out.println("Voto rejeitado na verificação: " + item.getId());
+      votosInvalidos.add(item.getId());
+    }
+    String[] candidatos = resultado.getCandidatos();
+    String[] ids = resultado.getIds();
+    Set<String> noLote = new HashSet<>();
+    for (int i = 0; i < candidatos.length; i++) {
+      if (candidatos[i] == null) {
+        continue;
+      }
+      String marcador = marcadorId(ids[i]);
+      if (repetidos.contains(marcador) || !noLote.add(marcador)) {
+        System.out.println("Voto repetido rejeitado: " + lote.get(i).getId() + " (idVoto " + ids[i] + ")");
+        votosInvalidos.add(lote.get(i).getId());
+        continue;
+      }
+      parcial.adicionar(candidatos[i]);
+      adicionarFolha(lote.get(i).getId(), candidatos[i]);
+      aceitos.add(ids[i]);
+    }
+    return parcial;
+  }
+
+  /**
+   * Publica a contagem local final em /resultado_votacao/{nodeId}, com o
+   * delta de conclusão que avisa o checkpoint do líder. As provas de
+   * auditoria saem antes: quem vê a conclusão já encontra as provas.
+   * As colunas por dimensão já foram publicadas lote a lote nos deltas; aqui
+   * vai só o vencedor de cada dimensão, limitado em tamanho
+   */
   private void publicarContagemLocal() throws KeeperException, InterruptedException {
-    String nodePath = RESULTADO_PATH + "/" + nodeId;
-    byte[] data = serializeContagem(contadorLocal);
+    publicarAuditoria();
+    String nodePath = namespace.resultado() + "/" + nodeId;
+    Map<String, String> metadados = new HashMap<>();
+    metadados.put("merkle", arvore.resumo());
+    resumirVencedores(contadorLocal, metadados);
+    metadados.put("concluido", "1");
+    Map<String, String> conclusao = new HashMap<>();
+    conclusao.put("merkle", arvore.resumo());
+    conclusao.put("concluido", "1");
+    checkpoint.publicarConclusao(nodeId, serializeContagem(contadorLocal, metadados),
+        serializeContagem(new VotingTally(), conclusao));
+    System.out.println("Publicado resultado local em " + nodePath);
+    if (!votosInvalidos.isEmpty()) {
+      System.out.println("Publicados " + votosInvalidos.size() + " votos inválidos em " + namespace.invalidos() + "/"
+          + nodeId + "-{lote}");
+    }
+  }
 
-    Stat s = zk.exists(nodePath, false);
-    if (s == null) {
-      zk.create(nodePath, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
-      System.out.println("Publicado resultado local em " + nodePath);
-    } else {
-      zk.setData(nodePath, data, s.getVersion());
-      System.out.println("Atualizado resultado local em " + nodePath);
+  /**
+   * Vencedor de cada dimensão em "vencedores" ("dimensão:candidato=votos;...",
+   * em ordem alfabética da dimensão), até {@link #LIMITE_RESUMO_VENCEDORES}
+   * caracteres; as dimensões que não couberem são contadas em "vencedores.omitidos"
+   */
+  private static void resumirVencedores(VotingTally apuracao, Map<String, String> metadados) {
+    Map<String, VotingTally.Posicao> vencedores = apuracao.vencedores();
+    if (vencedores.isEmpty()) {
+      return;
+    }
+    StringJoiner resumo = new StringJoiner(";");
+    int omitidos = 0;
+    for (Map.Entry<String, VotingTally.Posicao> e : vencedores.entrySet()) {
+      String entrada = e.getKey() + ":" + e.getValue().getCandidato() + "=" + e.getValue().getVotos();
+      if (resumo.length() + entrada.length() + 1 > LIMITE_RESUMO_VENCEDORES) {
+        omitidos++;
+      } else {
+        resumo.add(entrada);
+      }
     }
+    metadados.put("vencedores", resumo.toString());
+    if (omitidos > 0) {
+      metadados.put("vencedores.omitidos", Integer.toString(omitidos));
+    }
+  }
+
+  /**
+   * Publica em /auditoria_votacao/{nodeId} a raiz de Merkle e as provas de
+   * inclusão das folhas sorteadas a partir dela, uma por linha:
+   * "indice|hash,hash,...|idVoto|candidato"
+   */
+  private void publicarAuditoria() throws KeeperException, InterruptedException {
+    String resumo = arvore.resumo();
+    long n = arvore.getTamanho();
+    StringBuilder sb = new StringBuilder("raiz=").append(resumo);
+    for (long indice : VotingMerkleTree.amostra(arvore.raiz(), n, AMOSTRA_AUDITORIA)) {
+      String[] folha = folhasArvore.get((int) indice);
+      String prova = VotingMerkleTree.provaEmHex(arvore.provaInclusao(indice, n));
+      sb.append('\n').append(indice).append('|').append(prova).append('|').append(folha[0]).append('|')
+          .append(folha[1]);
+    }
+    byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+    String path = namespace.auditoria() + "/" + nodeId;
+    conexao.executar(zk -> {
+      try {
+        zk.setData(path, data, -1);
+      } catch (KeeperException.NoNodeException e) {
+        try {
+          zk.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        } catch (KeeperException.NodeExistsException criado) {
+          zk.setData(path, data, -1);
+        } catch (KeeperException.NoNodeException semPai) {
+          ensurePath(namespace.auditoria());
+          zk.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        }
+      }
+      return null;
+    });
   }
 
   /** Lê todos os resultados em /resultado_votacao e agrega */
   private void compilarResultadoFinal() throws KeeperException, InterruptedException {
     System.out.println("\nCOMPILANDO RESULTADO FINAL (agregado entre nós) para encontrar o vencedor...");
-    Map<String, Integer> agregado = new HashMap<>();
-
-    List<String> filhos = zk.getChildren(RESULTADO_PATH, false);
-    for (String filho : filhos) {
-      String path = RESULTADO_PATH + "/" + filho;
-      byte[] data = zk.getData(path, false, null);
-      Map<String, Integer> parcial = deserializeContagem(data);
-      somar(agregado, parcial);
+    // Checkpoint mais os deltas restantes: não relê a contagem de cada nó
+    VotingTally agregado = checkpoint.consolidar();
+    Map<Integer, String> concluidos = checkpoint.getConcluidos();
+    for (Map.Entry<Integer, Long> e : checkpoint.getVotosPorNo().entrySet()) {
+      auditarParcial(e.getKey(), e.getValue(), concluidos.get(e.getKey()));
     }
+    System.out.println("Checkpoint v" + checkpoint.getVersao() + ": fila consumida até a sequência "
+        + checkpoint.getSequencia() + ", " + concluidos.size() + " de " + tamanhoBarreira + " nós concluídos");
 
+    resultadoFinal = agregado;
     imprimirResultado("RESULTADO FINAL DA VOTAÇÃO (GLOBAL)", agregado);
+
+    int invalidos = contarInvalidos();
+    if (invalidos > 0) {
+      System.out.println("Votos rejeitados na verificação: " + invalidos);
+    }
+  }
+
+  /**
+   * Audita a contagem de um nó: cada raiz publicada precisa estender a
+   * anterior (provas de consistência conferidas pelo checkpoint ao aplicar os
+   * deltas), a árvore final precisa cobrir exatamente os votos aplicados, e
+   * cada folha sorteada a partir da raiz precisa ter prova de inclusão válida
+   */
+  private void auditarParcial(int no, long votos, String merkle) throws KeeperException, InterruptedException {
+    if (merkle == null || merkle.isEmpty()) {
+      System.out.println("Auditoria: nó " + no + " não publicou a contagem final com raiz de Merkle (" + votos
+          + " votos aplicados)");
+      return;
+    }
+    String inconsistencia = checkpoint.getInconsistencias().get(no);
+    if (inconsistencia != null) {
+      System.out.println("Auditoria: nó " + no + " DIVERGENTE - " + inconsistencia);
+      return;
+    }
+    long folhas = Long.parseLong(merkle.substring(0, merkle.indexOf(':')));
+    if (folhas != votos) {
+      System.out.println("Auditoria: nó " + no + " DIVERGENTE - " + votos + " votos contados, " + folhas
+          + " na árvore de Merkle");
+      return;
+    }
+
+    String path = namespace.auditoria() + "/" + no;
+    byte[] data;
+    try {
+      data = conexao.executar(zk -> zk.getData(path, false, null));
+    } catch (KeeperException.NoNodeException e) {
+      System.out.println("Auditoria: nó " + no + " não publicou provas de inclusão (" + merkle + ")");
+      return;
+    }
+    String[] linhas = new String(data, StandardCharsets.UTF_8).split("\n");
+    if (!linhas[0].equals("raiz=" + merkle)) {
+      System.out.println("Auditoria: nó " + no + " DIVERGENTE - provas para " + linhas[0] + ", contagem com "
+          + merkle);
+      return;
+    }
+
+    byte[] raiz = VotingMerkleTree.raizDeHex(merkle.substring(merkle.indexOf(':') + 1));
+    long[] sorteadas = VotingMerkleTree.amostra(raiz, folhas, AMOSTRA_AUDITORIA);
+    if (linhas.length - 1 != sorteadas.length) {
+      System.out.println("Auditoria: nó " + no + " DIVERGENTE - " + (linhas.length - 1) + " provas publicadas, "
+          + sorteadas.length + " sorteadas");
+      return;
+    }
+    for (int j = 0; j < sorteadas.length; j++) {
+      String[] campos = linhas[j + 1].split("\\|", 4);
+      List<byte[]> prova = campos.length == 4 ? VotingMerkleTree.provaDeHex(campos[1]) : List.of();
+      if (campos.length != 4 || Long.parseLong(campos[0]) != sorteadas[j]
+          || !VotingMerkleTree.verificarInclusao(campos[2], campos[3], sorteadas[j], folhas, prova, raiz)) {
+        System.out.println("Auditoria: nó " + no + " DIVERGENTE - prova de inclusão inválida para a folha "
+            + sorteadas[j]);
+        return;
+      }
+    }
+    System.out.println("Auditoria: nó " + no + " OK (" + merkle + ", " + sorteadas.length
+        + " provas de inclusão e " + checkpoint.getConsistenciasPorNo().getOrDefault(no, 0L)
+        + " de consistência verificadas)");
+  }
+
+  /**
+   * Remove os marcadores de /votos_contados (um znode por voto assinado
+   * contado). Só depois do resultado final com todos os nós concluídos: a
+   * urna está fechada e a fila vazia, então nenhum voto repetido pode mais
+   * chegar. Se algum nó não concluiu, os marcadores ficam até a próxima
+   * execução, que os descarta antes de abrir a urna
+   */
+  private void descartarMarcadores() throws KeeperException, InterruptedException {
+    if (verificador == null) {
+      return; // Sem assinatura não há marcadores
+    }
+    int removidos = new VotingLifecycle(conexao).apagar(namespace.contados());
+    ensurePath(namespace.contados());
+    System.out.println("Descartados " + Math.max(0, removidos - 1) + " znodes de marcadores (baldes incluídos) em "
+        + namespace.contados());
+  }
+
+  /** Soma os votos rejeitados publicados em /votos_invalidos (um znode por lote) */
+  private int contarInvalidos() throws KeeperException, InterruptedException {
+    ZooKeeper zk = conexao.getZk();
+    if (zk.exists(namespace.invalidos(), false) == null) {
+      return 0;
+    }
+    int total = 0;
+    for (String filho : zk.getChildren(namespace.invalidos(), false)) {
+      byte[] data = zk.getData(namespace.invalidos() + "/" + filho, false, null);
+      if (data != null && data.length > 0) {
+        total += new String(data, StandardCharsets.UTF_8).split(";").length;
+      }
+    }
+    return total;
   }
 
   /** Aguarda "anúncio" do líder (simplificado com sleep) */
   private void aguardarResultadoFinal() throws InterruptedException {
+    if (!modoDemo) {
+      return;
+    }
     System.out.println("Aguardando resultado final do coordenador...");
     Thread.sleep(5000);
     System.out.println("Resultado recebido!");
+    if (consulta != null) {
+      System.out.println("Snapshot de consulta: " + consulta.getSnapshot());
+    }
+  }
+
+  /** Resultado agregado, disponível no líder após a compilação (ou null) */
+  public Map<String, Integer> getResultadoFinal() {
+    return resultadoFinal == null ? null : resultadoFinal.contagem();
+  }
+
+  /** Resultado agregado por dimensão, disponível no líder após a compilação (ou null) */
+  public VotingTally getApuracaoFinal() {
+    return resultadoFinal;
+  }
+
+  /** Árvore de Merkle dos votos contados, para provas de auditoria */
+  public VotingMerkleTree getArvore() {
+    return arvore;
+  }
+
+  /** Serviço de consulta de resultados deste nó */
+  public VotingQueryService getConsulta() {
+    return consulta;
   }
 
   /* ====================== Utilitários ====================== */
 
-  private static void somar(Map<String, Integer> base, Map<String, Integer> inc) {
+  static void somar(Map<String, Integer> base, Map<String, Integer> inc) {
     for (Map.Entry<String, Integer> e : inc.entrySet()) {
       base.put(e.getKey(), base.getOrDefault(e.getKey(), 0) + e.getValue());
     }
   }
 
-  private static void imprimirResultado(String titulo, Map<String, Integer> contagem) {
+  private static void imprimirResultado(String titulo, VotingTally apuracao) {
     System.out.println(titulo);
     System.out.println("================================");
-    int total = 0;
-    String vencedor = null;
-    int max = 0;
-
-    for (Map.Entry<String, Integer> e : contagem.entrySet()) {
-      System.out.println("Candidato " + e.getKey() + ": " + e.getValue() + " votos");
-      total += e.getValue();
-      if (e.getValue() > max) {
-        max = e.getValue();
-        vencedor = e.getKey();
-      }
+    // Ranking pelo heap: com milhares de candidatos só os primeiros são listados
+    List<VotingTally.Posicao> ranking = apuracao.topK(VotingTally.TOTAL, CANDIDATOS_LISTADOS + 1);
+    for (int i = 0; i < Math.min(CANDIDATOS_LISTADOS, ranking.size()); i++) {
+      System.out.println("Candidato " + ranking.get(i).getCandidato() + ": " + ranking.get(i).getVotos() + " votos");
+    }
+    if (ranking.size() > CANDIDATOS_LISTADOS) {
+      System.out.println("...");
     }
     System.out.println("--------------------------------");
-    System.out.println("Total de votos processados: " + total);
-    if (vencedor != null) {
-      System.out.println("VENCEDOR: Candidato " + vencedor + " com " + max + " votos.");
+    System.out.println("Total de votos processados: " + apuracao.total());
+    if (!ranking.isEmpty()) {
+      VotingTally.Posicao vencedor = ranking.get(0);
+      boolean empate = ranking.size() > 1 && ranking.get(1).getVotos() == vencedor.getVotos();
+      System.out.println("VENCEDOR: Candidato " + vencedor.getCandidato() + " com " + vencedor.getVotos() + " votos."
+          + (empate ? " (empate desfeito pela ordem alfabética)" : ""));
+    }
+
+    Map<String, VotingTally.Posicao> vencedores = apuracao.vencedores();
+    if (!vencedores.isEmpty()) {
+      System.out.println("--------------------------------");
+      int listados = 0;
+      for (Map.Entry<String, VotingTally.Posicao> e : vencedores.entrySet()) {
+        if (listados++ == CANDIDATOS_LISTADOS) {
+          System.out.println("... (" + vencedores.size() + " dimensões)");
+          break;
+        }
+        System.out.println("Vencedor em " + e.getKey() + ": " + e.getValue().getCandidato() + " com "
+            + e.getValue().getVotos() + " votos");
+      }
     }
     System.out.println("================================");
     System.out.println("Votação finalizada com sucesso. =)");
   }
 
-  /** Serializa como "A=3;B=1;..." (sem dependências externas) */
-  private static byte[] serializeContagem(Map<String, Integer> m) {
-    StringBuilder sb = new StringBuilder();
-    for (Map.Entry<String, Integer> e : m.entrySet()) {
-      if (sb.length() > 0)
-        sb.append(';');
-      sb.append(e.getKey()).append('=').append(e.getValue());
+  /**
+   * Serializa como "A=3;B=1;..." (sem dependências externas), seguido de uma
+   * linha "chave=valor" por metadado
+   */
+  static byte[] serializeContagem(VotingTally apuracao, Map<String, String> metadados) {
+    StringBuilder sb = new StringBuilder(apuracao.serializarTotal());
+    for (Map.Entry<String, String> e : metadados.entrySet()) {
+      sb.append('\n').append(e.getKey()).append('=').append(e.getValue());
     }
     return sb.toString().getBytes(StandardCharsets.UTF_8);
   }
 
-  /** Deserializa "A=3;B=1;..." */
-  private static Map<String, Integer> deserializeContagem(byte[] data) {
+  /** Deserializa "A=3;B=1;..." (apenas a primeira linha) */
+  static Map<String, Integer> deserializeContagem(byte[] data) {
     Map<String, Integer> m = new HashMap<>();
     if (data == null || data.length == 0)
       return m;
     String s = new String(data, StandardCharsets.UTF_8);
+    int fimLinha = s.indexOf('\n');
+    if (fimLinha >= 0)
+      s = s.substring(0, fimLinha);
     for (String part : s.split(";")) {
       if (part.isEmpty())
         continue;
@@ -262,23 +886,23 @@ public class SistemaVotacao {
     return m;
   }
 
-  /** Conecta e espera estado SYNC_CONNECTED */
-  private static ZooKeeper connectZk(String address) throws IOException, InterruptedException {
-    CountDownLatch latch = new CountDownLatch(1);
-    ZooKeeper zk = new ZooKeeper(address, 3000, new Watcher() {
-      @Override
-      public void process(WatchedEvent event) {
-        if (event.getState() == Event.KeeperState.SyncConnected) {
-          latch.countDown();
-        }
-      }
-    });
-    latch.await();
-    return zk;
+  /** Lê os metadados "chave=valor" publicados após a contagem */
+  static Map<String, String> deserializeMetadados(byte[] data) {
+    Map<String, String> m = new HashMap<>();
+    if (data == null || data.length == 0)
+      return m;
+    String[] linhas = new String(data, StandardCharsets.UTF_8).split("\n");
+    for (int i = 1; i < linhas.length; i++) {
+      String[] kv = linhas[i].split("=", 2);
+      if (kv.length == 2)
+        m.put(kv[0], kv[1]);
+    }
+    return m;
   }
 
   /** Garante que um znode persistente exista */
   private void ensurePath(String path) throws KeeperException, InterruptedException {
+    ZooKeeper zk = conexao.getZk();
     try {
       Stat s = zk.exists(path, false);
       if (s == null) {
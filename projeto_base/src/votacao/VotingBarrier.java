@@ -14,13 +14,15 @@ import org.apache.zookeeper.data.Stat;
 /**
  * Implementação de Barrier distribuída usando ZooKeeper
  * Permite que múltiplos nós aguardem até que todos estejam prontos
+ * O nó de presença é recriado se a sessão expirar antes da saída da barreira
  */
-public class VotingBarrier implements Watcher {
+public class VotingBarrier implements Watcher, VotingConnection.Recuperavel {
 
-  private ZooKeeper zk;
+  private VotingConnection conexao;
   private String root;
   private int size;
   private String name;
+  private volatile String presenca;
   private Object mutex = new Object();
 
   /**
@@ -31,17 +33,32 @@ public class VotingBarrier implements Watcher {
    * @param size    Número de nós que devem participar
    */
   public VotingBarrier(String address, String root, int size) throws IOException {
+    this(new VotingConnection(address), root, size);
+  }
+
+  /**
+   * Construtor do Barrier sobre uma conexão compartilhada
+   * 
+   * @param conexao Conexão com o ZooKeeper
+   * @param root    Caminho raiz do barrier
+   * @param size    Número de nós que devem participar
+   */
+  public VotingBarrier(VotingConnection conexao, String root, int size) {
     this.root = root;
     this.size = size;
-    this.zk = new ZooKeeper(address, 3000, this);
+    this.conexao = conexao;
     this.name = System.currentTimeMillis() + "-" + Thread.currentThread().getId();
 
     try {
       // Criar o nó raiz se não existir
+      ZooKeeper zk = conexao.getZk();
       Stat s = zk.exists(root, false);
       if (s == null) {
-        zk.create(root, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        // Container: removido pelo servidor quando fica vazio
+        zk.create(root, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.CONTAINER);
       }
+    } catch (KeeperException.NodeExistsException e) {
+      // Criado por outro nó
     } catch (KeeperException e) {
       System.err.println("Erro ao criar nó raiz do barrier: " + e.getMessage());
     } catch (InterruptedException e) {
@@ -56,15 +73,20 @@ public class VotingBarrier implements Watcher {
    */
   public boolean enter() throws KeeperException, InterruptedException {
     // Criar nó ephemeral para indicar presença
-    String path = zk.create(root + "/" + name + "-", new byte[0],
-        Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+    conexao.adicionarRecuperavel(this);
+    presenca = conexao.criarProtegido(root + "/" + name + "-", new byte[0], CreateMode.EPHEMERAL_SEQUENTIAL);
 
-    System.out.println("Barrier: Nó criado em " + path);
+    System.out.println("Barrier: Nó criado em " + presenca);
 
     while (true) {
       synchronized (mutex) {
-        List<String> list = zk.getChildren(root, true);
+        List<String> list = conexao.executar(zk -> zk.getChildren(root, this));
 
+        if (!list.contains(presenca.substring(root.length() + 1))) {
+          // Presença perdida com a sessão: recria antes de contar
+          sessaoRecriada();
+          continue;
+        }
         if (list.size() < size) {
           System.out.println("Barrier: Aguardando... (" + list.size() + "/" + size + " nós)");
           mutex.wait();
@@ -80,12 +102,20 @@ public class VotingBarrier implements Watcher {
    * Sai do barrier - remove o nó criado
    */
   public boolean leave() throws KeeperException, InterruptedException {
-    // Em uma implementação mais robusta, manteria referência ao path criado
-    List<String> list = zk.getChildren(root, false);
+    conexao.removerRecuperavel(this);
+    List<String> list = conexao.executar(zk -> zk.getChildren(root, false));
 
     for (String child : list) {
       if (child.startsWith(name)) {
-        zk.delete(root + "/" + child, -1);
+        try {
+          conexao.executar(zk -> {
+            zk.delete(root + "/" + child, -1);
+            return null;
+          });
+        } catch (KeeperException.NoNodeException e) {
+          // Perdido com a sessão ou removido por uma repetição
+        }
+        presenca = null;
         System.out.println("Barrier: Saí da barrier");
         break;
       }
@@ -93,7 +123,11 @@ public class VotingBarrier implements Watcher {
 
     while (true) {
       synchronized (mutex) {
-        list = zk.getChildren(root, true);
+        try {
+          list = conexao.executar(zk -> zk.getChildren(root, this));
+        } catch (KeeperException.NoNodeException e) {
+          return true; // Container vazio já removido pelo servidor
+        }
         if (list.size() > 0) {
           mutex.wait();
         } else {
@@ -103,6 +137,22 @@ public class VotingBarrier implements Watcher {
     }
   }
 
+  /**
+   * Recria o nó de presença perdido com a sessão expirada, para que os nós
+   * que ainda aguardam continuem enxergando este participante
+   */
+  @Override
+  public void sessaoRecriada() throws KeeperException, InterruptedException {
+    synchronized (mutex) {
+      String atual = presenca;
+      if (atual == null || conexao.executar(zk -> zk.exists(atual, false)) != null) {
+        return;
+      }
+      presenca = conexao.criarProtegido(root + "/" + name + "-", new byte[0], CreateMode.EPHEMERAL_SEQUENTIAL);
+      System.out.println("Barrier: Presença recriada após expiração da sessão em " + presenca);
+    }
+  }
+
   @Override
   public void process(WatchedEvent event) {
     synchronized (mutex) {
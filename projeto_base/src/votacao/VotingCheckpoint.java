@@ -0,0 +1,777 @@
+package src.votacao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Checkpoints do progresso global da eleição
+ * Cada nó retira o lote da fila e grava, junto com a sua contagem acumulada e
+ * no mesmo multi, um delta com os votos do lote em
+ * /deltas_votacao/{nodeId}-{primeira sequência do lote}. O líder aplica os
+ * deltas periodicamente em /checkpoint_votacao (placar global, maior sequência
+ * consumida da fila, último lote e votos de cada nó, nós concluídos) e remove
+ * os deltas aplicados na mesma transação, com setData condicionado à versão.
+ * Cada delta traz a nova raiz de Merkle do nó e a prova de consistência a
+ * partir da raiz do lote anterior, conferida aqui antes de o delta sumir.
+ * Um novo líder lê o checkpoint e reaplica só os deltas restantes, então a
+ * retomada não depende do número de nós nem de votos da eleição.
+ * As colunas por dimensão crescem com candidatos x seções e não cabem em um
+ * znode: ficam em partes filhas do checkpoint ("parte-{token}-{i}"), gravadas
+ * antes do multi e citadas pelo metadado "partes"; as anteriores só são
+ * removidas depois que o multi passa a citar as novas
+ */
+public class VotingCheckpoint implements Runnable {
+
+  /** Deltas aplicados por transação (mantém o multi bem abaixo do jute.maxbuffer) */
+  private static final int DELTAS_POR_MULTI = 500;
+
+  /** Maior requisição aceita pelo servidor; acima dela a conexão é derrubada */
+  private static final int LIMITE_REQUISICAO = Integer.getInteger("jute.maxbuffer", 0xfffff);
+
+  /** Bytes de colunas por parte filha do checkpoint (bem abaixo do jute.maxbuffer) */
+  private static final int TAMANHO_PARTE = 256 * 1024;
+
+  /** Sufixo do delta que marca a conclusão de um nó (sem votos) */
+  private static final String SUFIXO_CONCLUSAO = "fim";
+
+  private final VotingConnection conexao;
+  private final VotingNamespace namespace;
+  private final long intervaloMs;
+  private volatile boolean ativo = false;
+  private volatile Thread executor;
+
+  // Estado do último checkpoint lido ou gravado (versao < 0: precisa restaurar)
+  private VotingTally apuracao = new VotingTally();
+  private long sequencia = -1;
+  private long deltasAplicados = 0;
+  // nodeId -> { chave do último lote, votos, provas de consistência conferidas }
+  private final Map<Integer, long[]> nos = new TreeMap<>();
+  private final Map<Integer, String> raizes = new TreeMap<>(); // nodeId -> última raiz de Merkle aplicada
+  private final Map<Integer, String> inconsistencias = new TreeMap<>(); // nodeId -> primeira falha
+  private final Map<Integer, String> concluidos = new TreeMap<>(); // nodeId -> resumo de Merkle
+  private String partes; // "token:quantidade" das partes com as colunas (null se não há colunas)
+  private boolean colunasAlteradas; // Deltas com colunas aplicados desde a última gravação
+  private int versao = -1;
+
+  /**
+   * Construtor do checkpoint
+   *
+   * @param conexao     Conexão com o ZooKeeper
+   * @param namespace   Namespace da eleição
+   * @param intervaloMs Intervalo entre checkpoints do líder
+   */
+  public VotingCheckpoint(VotingConnection conexao, VotingNamespace namespace, long intervaloMs) {
+    this.conexao = conexao;
+    this.namespace = namespace;
+    this.intervaloMs = intervaloMs;
+  }
+
+  /* ====================== Lado do nó ====================== */
+
+  /**
+   * Retira o lote da fila, publica a contagem acumulada do nó e cria o delta
+   * do lote em um único multi: um nó que cai antes dele deixa os votos na
+   * fila, e um lote retirado sempre está contado. O delta é identificado pela
+   * primeira sequência do lote na fila, que não depende do estado do processo
+   *
+   * @param nodeId   ID do nó
+   * @param chave    Primeira sequência do lote na fila
+   * @param consumo  Operações que retiram o lote da fila (e verificações e
+   *                 marcadores que devem ir junto)
+   * @param contagem Conteúdo de /resultado_votacao/{nodeId}, com o metadado
+   *                 "lote" igual à chave (desfaz a ambiguidade de um ConnectionLoss)
+   * @param delta    Votos do lote, no mesmo formato
+   * @return null se o lote foi publicado; senão o caminho da operação de
+   *         consumo que falhou (lock perdido, voto já retirado por outro nó,
+   *         marcador já existente ou sem pai), sem nada aplicado
+   */
+  public String publicarLote(int nodeId, long chave, List<Op> consumo, byte[] contagem, byte[] delta)
+      throws KeeperException, InterruptedException {
+    String resultadoPath = namespace.resultado() + "/" + nodeId;
+    String deltaPath = namespace.deltas() + "/" + nodeId + "-" + String.format("%010d", chave);
+    List<Op> ops = new ArrayList<>(consumo);
+    ops.add(Op.setData(resultadoPath, contagem, -1));
+    ops.add(Op.create(deltaPath, delta, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+    verificarTamanho(resultadoPath, ops, contagem.length + delta.length);
+    boolean ambiguo = false;
+    while (true) {
+      try {
+        if (ambiguo && publicado(resultadoPath, chave)) {
+          return null;
+        }
+        conexao.getZk().multi(ops);
+        return null;
+      } catch (KeeperException.NoNodeException | KeeperException.NodeExistsException e) {
+        int falha = VotingConnection.operacaoComFalha(e);
+        if (falha >= 0 && falha < consumo.size()) {
+          return ops.get(falha).getPath();
+        }
+        if (e instanceof KeeperException.NodeExistsException) {
+          return null; // O delta do lote já existe: multi aplicado antes
+        }
+        // Primeira publicação do nó (ou árvore recriada): cria os pais e repete
+        criarPais(resultadoPath);
+      } catch (KeeperException.ConnectionLossException | KeeperException.SessionExpiredException e) {
+        // Não dá para repetir às cegas: se o multi foi aplicado, as remoções falham
+        ambiguo = true;
+        if (!conexao.aguardarSessao()) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Publica a contagem final do nó e o delta de conclusão (sem votos) em um
+   * único multi. Repetir é seguro: o delta de conclusão é regravado
+   *
+   * @param nodeId   ID do nó
+   * @param contagem Conteúdo final de /resultado_votacao/{nodeId}
+   * @param delta    Delta de conclusão, com o resumo de Merkle
+   */
+  public void publicarConclusao(int nodeId, byte[] contagem, byte[] delta)
+      throws KeeperException, InterruptedException {
+    String resultadoPath = namespace.resultado() + "/" + nodeId;
+    String deltaPath = namespace.deltas() + "/" + nodeId + "-" + SUFIXO_CONCLUSAO;
+    verificarTamanho(resultadoPath, List.of(Op.setData(resultadoPath, contagem, -1)), contagem.length + delta.length);
+    conexao.executar(zk -> {
+      boolean existe = false;
+      while (true) {
+        try {
+          zk.multi(List.of(Op.setData(resultadoPath, contagem, -1), existe
+              ? Op.setData(deltaPath, delta, -1)
+              : Op.create(deltaPath, delta, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT)));
+          return null;
+        } catch (KeeperException.NodeExistsException e) {
+          existe = true;
+        } catch (KeeperException.NoNodeException e) {
+          existe = false;
+          criarPais(resultadoPath);
+        }
+      }
+    });
+  }
+
+  /**
+   * Recusa um multi que não caberia no jute.maxbuffer: o servidor derrubaria
+   * a conexão e o multi seria repetido para sempre como ConnectionLoss. A
+   * estimativa soma os dados e uma margem por operação (caminho e cabeçalho)
+   */
+  private static void verificarTamanho(String path, List<Op> ops, int dados)
+      throws KeeperException.BadArgumentsException {
+    long estimativa = dados;
+    for (Op op : ops) {
+      estimativa += op.getPath().length() + 128;
+    }
+    if (estimativa > LIMITE_REQUISICAO) {
+      System.err.printf("Checkpoint: publicação de %s com cerca de %d bytes excede o limite de %d bytes"
+          + " (jute.maxbuffer)%n", path, estimativa, LIMITE_REQUISICAO);
+      throw new KeeperException.BadArgumentsException(path);
+    }
+  }
+
+  /** Se a contagem publicada do nó já é a do lote (multi aplicado antes do ConnectionLoss) */
+  private boolean publicado(String resultadoPath, long chave) throws KeeperException, InterruptedException {
+    try {
+      byte[] data = conexao.executar(zk -> zk.getData(resultadoPath, false, null));
+      return Long.toString(chave).equals(SistemaVotacao.deserializeMetadados(data).get("lote"));
+    } catch (KeeperException.NoNodeException e) {
+      return false;
+    }
+  }
+
+  private void criarPais(String resultadoPath) throws KeeperException, InterruptedException {
+    for (String path : new String[] { resultadoPath, namespace.deltas() }) {
+      try {
+        conexao.executar(zk -> zk.create(path, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+      } catch (KeeperException.NodeExistsException existe) {
+        // Já existe
+      }
+    }
+  }
+
+  /* ====================== Lado do líder ====================== */
+
+  /**
+   * Restaura o checkpoint (se ainda não restaurado) e passa a gravar
+   * checkpoints periódicos em uma thread daemon. Chamadas repetidas não
+   * criam outra thread
+   */
+  public synchronized void iniciar() throws KeeperException, InterruptedException {
+    if (ativo) {
+      return;
+    }
+    if (versao < 0) {
+      restaurar();
+    }
+    ativo = true;
+    Thread t = new Thread(this, "checkpoint");
+    t.setDaemon(true);
+    executor = t; // Uma thread de um iniciar anterior sai na próxima rodada
+    t.start();
+  }
+
+  /**
+   * Interrompe os checkpoints periódicos (por exemplo, ao perder a liderança)
+   */
+  public void parar() {
+    ativo = false;
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (ativo && Thread.currentThread() == executor) {
+        try {
+          aplicarDeltas();
+        } catch (KeeperException.ConnectionLossException | KeeperException.SessionExpiredException e) {
+          // Sessão em recuperação: o estado é relido na próxima rodada
+        } catch (KeeperException e) {
+          System.err.println("Checkpoint: erro ao aplicar deltas: " + e.getMessage());
+        }
+        Thread.sleep(intervaloMs);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Lê o último checkpoint gravado, descartando o estado em memória
+   *
+   * @return Versão do checkpoint
+   */
+  public synchronized int restaurar() throws KeeperException, InterruptedException {
+    long inicio = System.nanoTime();
+    Stat stat = new Stat();
+    byte[] data;
+    byte[] completo;
+    while (true) {
+      try {
+        data = conexao.executar(zk -> zk.getData(namespace.checkpoint(), false, stat));
+        completo = comColunas(data);
+        if (completo != null) {
+          break;
+        }
+        // Partes removidas: outro líder gravou um checkpoint mais novo, relê
+      } catch (KeeperException.NoNodeException e) {
+        try {
+          conexao.executar(zk -> zk.create(namespace.checkpoint(), new byte[0], Ids.OPEN_ACL_UNSAFE,
+              CreateMode.PERSISTENT));
+        } catch (KeeperException.NodeExistsException existe) {
+          // Criado por outro nó
+        }
+      }
+    }
+
+    apuracao = VotingTally.desserializar(completo, namespace.checkpoint());
+    nos.clear();
+    raizes.clear();
+    inconsistencias.clear();
+    concluidos.clear();
+    Map<String, String> metadados = SistemaVotacao.deserializeMetadados(data);
+    partes = metadados.get("partes");
+    colunasAlteradas = false;
+    sequencia = Long.parseLong(metadados.getOrDefault("sequencia", "-1"));
+    deltasAplicados = Long.parseLong(metadados.getOrDefault("deltas", "0"));
+    for (Map.Entry<String, String> e : metadados.entrySet()) {
+      if (e.getKey().startsWith("no.")) {
+        // "lote:votos:provas:raiz", com a raiz no formato "tamanho:hex"
+        String[] campos = e.getValue().split(":", 4);
+        int no = Integer.parseInt(e.getKey().substring(3));
+        nos.put(no, new long[] { Long.parseLong(campos[0]), Long.parseLong(campos[1]),
+            campos.length > 2 ? Long.parseLong(campos[2]) : 0 });
+        if (campos.length > 3) {
+          raizes.put(no, campos[3]);
+        }
+      } else if (e.getKey().startsWith("inconsistente.")) {
+        inconsistencias.put(Integer.parseInt(e.getKey().substring(14)), e.getValue());
+      } else if (e.getKey().startsWith("concluido.")) {
+        concluidos.put(Integer.parseInt(e.getKey().substring(10)), e.getValue());
+      }
+    }
+    versao = stat.getVersion();
+    System.out.printf("Checkpoint: v%d restaurado (%d votos, %d nós, %d concluídos, sequência %d) em %.1f ms%n",
+        versao, apuracao.total(), nos.size(), concluidos.size(), sequencia, (System.nanoTime() - inicio) / 1e6);
+    return versao;
+  }
+
+  /**
+   * Aplica os deltas pendentes e grava o novo checkpoint, removendo os deltas
+   * aplicados na mesma transação. Se outro líder gravou antes (versão
+   * diferente), relê o checkpoint e aplica na próxima chamada
+   *
+   * @return Número de deltas aplicados
+   */
+  public synchronized int aplicarDeltas() throws KeeperException, InterruptedException {
+    ZooKeeper zk = conexao.getZk();
+    // Sem deltas pendentes o estado ainda pode estar velho: outro líder pode
+    // ter aplicado os deltas e gravado um checkpoint mais novo
+    Stat atual = zk.exists(namespace.checkpoint(), false);
+    if (versao < 0 || atual == null || atual.getVersion() != versao) {
+      restaurar();
+    }
+    List<String> nomes = zk.getChildren(namespace.deltas(), false);
+    // Ordem por nó e lote: lotes antigos de um nó nunca vêm depois dos novos
+    Collections.sort(nomes);
+
+    int aplicados = 0;
+    for (int i = 0; i < nomes.size(); i += DELTAS_POR_MULTI) {
+      List<String> bloco = nomes.subList(i, Math.min(i + DELTAS_POR_MULTI, nomes.size()));
+      byte[][] dados = lerDeltas(zk, namespace.deltas(), bloco);
+
+      List<Op> ops = new ArrayList<>();
+      ops.add(null); // setData do checkpoint, montado depois dos deltas
+      for (int j = 0; j < bloco.size(); j++) {
+        if (dados[j] == null) {
+          continue; // Removido por outro líder
+        }
+        try {
+          aplicar(namespace.deltas() + "/" + bloco.get(j), dados[j]);
+        } catch (KeeperException e) {
+          versao = -1; // Estado em memória parcial: o próximo ciclo restaura
+          throw e;
+        }
+        ops.add(Op.delete(namespace.deltas() + "/" + bloco.get(j), -1));
+      }
+      deltasAplicados += ops.size() - 1;
+      String anteriores = partes;
+      if (colunasAlteradas) {
+        try {
+          partes = gravarPartes(zk);
+        } catch (KeeperException e) {
+          versao = -1;
+          throw e;
+        }
+      }
+      byte[] conteudo = serializar();
+      // O multi inteiro precisa caber no jute.maxbuffer: uma requisição maior
+      // derruba a conexão e seria repetida para sempre. Sem as colunas, o
+      // checkpoint cresce só com o número de nós
+      if (conteudo.length + bloco.size() * (namespace.deltas().length() + 32) > LIMITE_REQUISICAO) {
+        versao = -1;
+        apagarPartes(zk, partes, anteriores);
+        System.err.printf("Checkpoint: %d bytes excede o limite de %d bytes (jute.maxbuffer)%n", conteudo.length,
+            LIMITE_REQUISICAO);
+        throw new KeeperException.BadArgumentsException(namespace.checkpoint());
+      }
+      ops.set(0, Op.setData(namespace.checkpoint(), conteudo, versao));
+
+      try {
+        List<OpResult> resultados = zk.multi(ops);
+        versao = ((OpResult.SetDataResult) resultados.get(0)).getStat().getVersion();
+        aplicados += ops.size() - 1;
+        colunasAlteradas = false;
+        apagarPartes(zk, anteriores, partes);
+      } catch (KeeperException.BadVersionException | KeeperException.NoNodeException e) {
+        // Outro líder gravou um checkpoint ou removeu os deltas: recomeça do que foi gravado
+        versao = -1;
+        apagarPartes(zk, partes, anteriores);
+        return aplicados;
+      } catch (KeeperException e) {
+        // Resultado incerto (perda de conexão): relê antes de aplicar de novo.
+        // As partes novas ficam: o multi pode ter sido aplicado e citá-las
+        versao = -1;
+        throw e;
+      }
+    }
+    return aplicados;
+  }
+
+  /**
+   * Estado global atualizado: checkpoint mais todos os deltas pendentes
+   */
+  public synchronized VotingTally consolidar() throws KeeperException, InterruptedException {
+    while (aplicarDeltas() > 0 || versao < 0) {
+      // Repete até não haver deltas pendentes com o checkpoint em dia
+    }
+    VotingTally copia = new VotingTally();
+    copia.somar(apuracao);
+    return copia;
+  }
+
+  /**
+   * Placar total (sem as dimensões) depois de aplicar os deltas pendentes.
+   * Custa só os lotes novos desde a última chamada, não o número de nós
+   */
+  public synchronized Map<String, Integer> placar() throws KeeperException, InterruptedException {
+    while (aplicarDeltas() > 0 || versao < 0) {
+      // Repete até não haver deltas pendentes com o checkpoint em dia
+    }
+    return apuracao.contagem();
+  }
+
+  /**
+   * Aplica os deltas até que {@code nos} nós tenham concluído, acordando a
+   * cada novo delta em /deltas_votacao
+   *
+   * @return true se todos concluíram antes do prazo
+   */
+  public boolean aguardarConcluidos(int totalNos, long timeoutMs) throws KeeperException, InterruptedException {
+    long limite = System.currentTimeMillis() + timeoutMs;
+    while (true) {
+      consolidar();
+      if (getConcluidos().size() >= totalNos) {
+        return true;
+      }
+      long restante = limite - System.currentTimeMillis();
+      if (restante <= 0) {
+        return false;
+      }
+      // O watch só libera a espera: a thread de eventos nunca fica bloqueada,
+      // pois as leituras dos deltas dependem dela para as respostas assíncronas
+      CountDownLatch novoDelta = new CountDownLatch(1);
+      Watcher aviso = event -> novoDelta.countDown();
+      if (conexao.getZk().getChildren(namespace.deltas(), aviso).isEmpty()) {
+        novoDelta.await(restante, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  /** Nós que publicaram a contagem final, com o resumo de Merkle publicado */
+  public synchronized Map<Integer, String> getConcluidos() {
+    return new TreeMap<>(concluidos);
+  }
+
+  /** Votos contados por nó segundo os deltas aplicados */
+  public synchronized Map<Integer, Long> getVotosPorNo() {
+    Map<Integer, Long> m = new TreeMap<>();
+    for (Map.Entry<Integer, long[]> e : nos.entrySet()) {
+      m.put(e.getKey(), e.getValue()[1]);
+    }
+    return m;
+  }
+
+  /** Provas de consistência entre raízes consecutivas conferidas por nó */
+  public synchronized Map<Integer, Long> getConsistenciasPorNo() {
+    Map<Integer, Long> m = new TreeMap<>();
+    for (Map.Entry<Integer, long[]> e : nos.entrySet()) {
+      m.put(e.getKey(), e.getValue()[2]);
+    }
+    return m;
+  }
+
+  /** Nós cuja cadeia de raízes de Merkle não se sustenta, com a primeira falha */
+  public synchronized Map<Integer, String> getInconsistencias() {
+    return new TreeMap<>(inconsistencias);
+  }
+
+  /** Maior sequência da fila entre os votos aplicados (-1 se nenhum) */
+  public synchronized long getSequencia() {
+    return sequencia;
+  }
+
+  /** Versão do último checkpoint lido ou gravado */
+  public synchronized int getVersao() {
+    return versao;
+  }
+
+  /* ====================== Internos ====================== */
+
+  /** Lê os deltas de um bloco com requisições em paralelo (null se removido) */
+  private static byte[][] lerDeltas(ZooKeeper zk, String raiz, List<String> bloco) throws KeeperException,
+      InterruptedException {
+    byte[][] dados = new byte[bloco.size()][];
+    int[] falha = { KeeperException.Code.OK.intValue() };
+    CountDownLatch pendentes = new CountDownLatch(bloco.size());
+    for (int j = 0; j < bloco.size(); j++) {
+      final int idx = j;
+      zk.getData(raiz + "/" + bloco.get(j), false, (rc, path, ctx, data, stat) -> {
+        if (rc == KeeperException.Code.OK.intValue()) {
+          dados[idx] = data;
+        } else if (rc != KeeperException.Code.NONODE.intValue()) {
+          synchronized (falha) {
+            falha[0] = rc;
+          }
+        }
+        pendentes.countDown();
+      }, null);
+    }
+    pendentes.await();
+    if (falha[0] != KeeperException.Code.OK.intValue()) {
+      throw KeeperException.create(KeeperException.Code.get(falha[0]));
+    }
+    return dados;
+  }
+
+  /**
+   * Grava as colunas por dimensão do estado em memória em partes novas, com
+   * um token próprio: as partes citadas pelo checkpoint atual continuam
+   * intactas até o multi que passa a citar estas
+   *
+   * @return "token:quantidade", ou null se não há colunas
+   */
+  private String gravarPartes(ZooKeeper zk) throws KeeperException, InterruptedException {
+    Map<String, String> metadados = new HashMap<>();
+    apuracao.publicarDimensoes(metadados);
+    if (metadados.isEmpty()) {
+      return null;
+    }
+    Map.Entry<String, String> coluna = metadados.entrySet().iterator().next();
+    byte[] colunas = (coluna.getKey() + "=" + coluna.getValue()).getBytes(StandardCharsets.UTF_8);
+    String token = VotingConnection.novoToken();
+    int quantidade = (colunas.length + TAMANHO_PARTE - 1) / TAMANHO_PARTE;
+    String gravadas = token + ":" + quantidade;
+    try {
+      for (int i = 0; i < quantidade; i++) {
+        byte[] parte = Arrays.copyOfRange(colunas, i * TAMANHO_PARTE,
+            Math.min(colunas.length, (i + 1) * TAMANHO_PARTE));
+        zk.create(caminhoParte(token, i), parte, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+      }
+    } catch (KeeperException e) {
+      apagarPartes(zk, gravadas, null);
+      throw e;
+    }
+    return gravadas;
+  }
+
+  /**
+   * Checkpoint lido com as colunas das partes que ele cita anexadas como
+   * metadado, no formato de {@link VotingTally#desserializar}
+   *
+   * @return null se alguma parte já foi removida (checkpoint substituído)
+   */
+  private byte[] comColunas(byte[] data) throws KeeperException, InterruptedException {
+    String citadas = SistemaVotacao.deserializeMetadados(data).get("partes");
+    if (citadas == null) {
+      return data;
+    }
+    String token = citadas.substring(0, citadas.indexOf(':'));
+    List<String> nomes = new ArrayList<>();
+    for (int i = 0; i < Integer.parseInt(citadas.substring(citadas.indexOf(':') + 1)); i++) {
+      nomes.add(caminhoParte(token, i).substring(namespace.checkpoint().length() + 1));
+    }
+    byte[][] lidas = lerDeltas(conexao.getZk(), namespace.checkpoint(), nomes);
+    ByteArrayOutputStream completo = new ByteArrayOutputStream();
+    completo.write(data, 0, data.length);
+    completo.write('\n');
+    for (byte[] parte : lidas) {
+      if (parte == null) {
+        return null;
+      }
+      completo.write(parte, 0, parte.length);
+    }
+    return completo.toByteArray();
+  }
+
+  /** Remove as partes citadas por {@code citadas}, exceto se forem as {@code atuais} */
+  private void apagarPartes(ZooKeeper zk, String citadas, String atuais) throws InterruptedException {
+    if (citadas == null || citadas.equals(atuais)) {
+      return;
+    }
+    String token = citadas.substring(0, citadas.indexOf(':'));
+    for (int i = 0; i < Integer.parseInt(citadas.substring(citadas.indexOf(':') + 1)); i++) {
+      try {
+        zk.delete(caminhoParte(token, i), -1);
+      } catch (KeeperException e) {
+        // Já removida, ou sobra que o ciclo de vida apaga com o checkpoint
+      }
+    }
+  }
+
+  private String caminhoParte(String token, int indice) {
+    return namespace.checkpoint() + "/parte-" + token + "-" + String.format("%04d", indice);
+  }
+
+  /** Soma um delta ao estado em memória, descartando lotes já aplicados */
+  private void aplicar(String path, byte[] data) throws KeeperException {
+    String nome = path.substring(path.lastIndexOf('/') + 1);
+    int separador = nome.lastIndexOf('-');
+    int nodeId = Integer.parseInt(nome.substring(0, separador));
+    String sufixo = nome.substring(separador + 1);
+    long[] estado = nos.computeIfAbsent(nodeId, id -> new long[] { -1, 0, 0 });
+    Map<String, String> metadados = SistemaVotacao.deserializeMetadados(data);
+    if (sufixo.equals(SUFIXO_CONCLUSAO)) {
+      String raiz = metadados.getOrDefault("merkle", "");
+      String ultima = raizes.get(nodeId);
+      if (ultima != null && !ultima.equals(raiz)) {
+        inconsistente(nodeId, "raiz final " + raiz + " difere da última raiz publicada " + ultima);
+      }
+      concluidos.put(nodeId, raiz);
+      return;
+    }
+    // A fila é consumida em ordem sob o lock: cada lote de um nó começa depois
+    // do anterior, inclusive entre reinícios do nó com o mesmo ID
+    long chave = Long.parseLong(sufixo);
+    if (chave <= estado[0]) {
+      return;
+    }
+    VotingTally votos = VotingTally.desserializar(data, path);
+    apuracao.somar(votos);
+    colunasAlteradas |= !votos.getDimensoes().isEmpty();
+    estado[0] = chave;
+    estado[1] += votos.total();
+    conferirConsistencia(nodeId, sufixo, metadados, estado);
+
+    String maior = metadados.get("sequencia");
+    if (maior != null) {
+      sequencia = Math.max(sequencia, Long.parseLong(maior));
+    }
+  }
+
+  /**
+   * Confere que a raiz publicada no delta estende a última raiz aplicada do
+   * nó (prova de consistência da RFC 9162). Deltas sem raiz (benchmarks) não
+   * entram na cadeia
+   */
+  private void conferirConsistencia(int nodeId, String lote, Map<String, String> metadados, long[] estado) {
+    String raiz = metadados.get("merkle");
+    if (raiz == null) {
+      return;
+    }
+    String anterior = raizes.put(nodeId, raiz);
+    boolean valida;
+    try {
+      List<byte[]> prova = VotingMerkleTree.provaDeHex(metadados.getOrDefault("consistencia", ""));
+      long n = Long.parseLong(raiz.substring(0, raiz.indexOf(':')));
+      byte[] raizN = VotingMerkleTree.raizDeHex(raiz.substring(raiz.indexOf(':') + 1));
+      if (anterior == null) {
+        valida = prova.isEmpty(); // Primeira raiz do nó: estende a árvore vazia
+      } else {
+        long m = Long.parseLong(anterior.substring(0, anterior.indexOf(':')));
+        byte[] raizM = VotingMerkleTree.raizDeHex(anterior.substring(anterior.indexOf(':') + 1));
+        valida = VotingMerkleTree.verificarConsistencia(m, raizM, n, raizN, prova);
+      }
+    } catch (IllegalArgumentException | StringIndexOutOfBoundsException e) {
+      valida = false; // Raiz ou prova malformada
+    }
+    if (valida) {
+      estado[2]++;
+    } else {
+      inconsistente(nodeId, "lote " + lote + ": raiz " + raiz + " não estende " + anterior);
+    }
+  }
+
+  private void inconsistente(int nodeId, String motivo) {
+    if (inconsistencias.putIfAbsent(nodeId, motivo) == null) {
+      System.err.println("Checkpoint: nó " + nodeId + " com cadeia de Merkle inconsistente - " + motivo);
+    }
+  }
+
+  /**
+   * Conteúdo do checkpoint: placar global na primeira linha e o progresso nos
+   * metadados. As colunas ficam nas partes citadas em "partes"
+   */
+  private byte[] serializar() {
+    Map<String, String> metadados = new HashMap<>();
+    if (partes != null) {
+      metadados.put("partes", partes);
+    }
+    metadados.put("sequencia", Long.toString(sequencia));
+    metadados.put("deltas", Long.toString(deltasAplicados));
+    for (Map.Entry<Integer, long[]> e : nos.entrySet()) {
+      long[] estado = e.getValue();
+      String raiz = raizes.get(e.getKey());
+      metadados.put("no." + e.getKey(),
+          estado[0] + ":" + estado[1] + ":" + estado[2] + (raiz != null ? ":" + raiz : ""));
+    }
+    for (Map.Entry<Integer, String> e : inconsistencias.entrySet()) {
+      metadados.put("inconsistente." + e.getKey(), e.getValue());
+    }
+    for (Map.Entry<Integer, String> e : concluidos.entrySet()) {
+      metadados.put("concluido." + e.getKey(), e.getValue());
+    }
+    return SistemaVotacao.serializeContagem(apuracao, metadados);
+  }
+
+  /**
+   * Compara a retomada pelo checkpoint com a releitura de todos os resultados
+   * publicados, para eleições com cada vez mais nós
+   * Uso: VotingCheckpoint [nos csv] [lotesPorNo] [deltasPendentes]
+   */
+  public static void main(String[] args) throws Exception {
+    String[] tamanhos = (args.length > 0 ? args[0] : "50,200,800").split(",");
+    int lotesPorNo = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int pendentes = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    String[] candidatos = { "A", "B", "C", "D" };
+    Random random = new Random(42);
+
+    VotingConnection conexao = new VotingConnection("localhost:2181").aguardarConexao();
+    VotingLifecycle ciclo = new VotingLifecycle(conexao);
+    System.out.println("  nós |   votos | releitura (ms) | checkpoint (ms) | deltas reaplicados | confere");
+    // Os resumos de restauração ficam de fora da tabela
+    PrintStream saida = System.out;
+    try {
+      for (String tamanho : tamanhos) {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        int totalNos = Integer.parseInt(tamanho.trim());
+        VotingNamespace namespace = new VotingNamespace("checkpoint-" + totalNos + "-" + VotingConnection.novoToken());
+        ciclo.preparar(namespace);
+        VotingCheckpoint lider = new VotingCheckpoint(conexao, namespace, 0);
+
+        // Nós publicam lotes; o líder faz checkpoint de tudo menos os últimos deltas
+        VotingTally[] acumulado = new VotingTally[totalNos + 1];
+        long sequencia = 0;
+        for (int lote = 1; lote <= lotesPorNo + 1; lote++) {
+          for (int no = 1; no <= totalNos; no++) {
+            if (lote > lotesPorNo && random.nextInt(totalNos) >= pendentes) {
+              continue;
+            }
+            VotingTally delta = new VotingTally();
+            for (int v = 0; v < 64; v++) {
+              delta.adicionar("secao=" + (no % 10) + "@" + candidatos[random.nextInt(candidatos.length)]);
+            }
+            if (acumulado[no] == null) {
+              acumulado[no] = new VotingTally();
+            }
+            acumulado[no].somar(delta);
+            Map<String, String> metadados = new HashMap<>();
+            metadados.put("sequencia", Long.toString(sequencia + 63));
+            lider.publicarLote(no, sequencia, List.of(), SistemaVotacao.serializeContagem(acumulado[no],
+                new HashMap<>()), SistemaVotacao.serializeContagem(delta, metadados));
+            sequencia += 64;
+          }
+          if (lote == lotesPorNo) {
+            lider.consolidar();
+          }
+        }
+
+        // Retomada sem checkpoint: lê a contagem publicada por cada nó
+        long inicio = System.nanoTime();
+        VotingTally releitura = new VotingTally();
+        ZooKeeper zk = conexao.getZk();
+        for (String filho : zk.getChildren(namespace.resultado(), false)) {
+          String path = namespace.resultado() + "/" + filho;
+          releitura.somar(VotingTally.desserializar(zk.getData(path, false, null), path));
+        }
+        double msReleitura = (System.nanoTime() - inicio) / 1e6;
+
+        // Retomada por um novo líder: checkpoint + deltas restantes
+        int restantes = zk.getChildren(namespace.deltas(), false).size();
+        inicio = System.nanoTime();
+        VotingTally retomada = new VotingCheckpoint(conexao, namespace, 0).consolidar();
+        double msCheckpoint = (System.nanoTime() - inicio) / 1e6;
+
+        System.setOut(saida);
+
+        System.out.printf("%5d | %7d | %14.1f | %15.1f | %18d | %s%n", totalNos, releitura.total(), msReleitura,
+            msCheckpoint, restantes, releitura.contagem().equals(retomada.contagem()) ? "sim" : "NÃO");
+        ciclo.encerrar(namespace);
+      }
+    } finally {
+      System.setOut(saida);
+      conexao.close();
+    }
+  }
+}
@@ -0,0 +1,514 @@
+package src.votacao;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+
+/**
+ * Conexão com o ZooKeeper compartilhável entre primitivas e eleições
+ * As primitivas registram seus watches explicitamente, então uma mesma
+ * sessão pode servir várias barreiras, filas, locks e eleições
+ *
+ * Quando a sessão expira, um novo handle é criado automaticamente e as
+ * primitivas registradas são avisadas para recriar nós efêmeros e watches.
+ * Operações interrompidas por perda de conexão são repetidas com
+ * {@link #executar(Operacao)}
+ */
+public class VotingConnection implements Watcher {
+
+  /** Tempo de sessão negociado com o servidor */
+  private static final int TIMEOUT_SESSAO_MS = 3000;
+
+  /** Tempo máximo que uma operação aguarda a sessão voltar */
+  private static final long PRAZO_RECUPERACAO_MS = 30000;
+
+  /** Pausa antes de repetir: o evento de desconexão pode chegar depois do erro */
+  private static final long PAUSA_REPETICAO_MS = 20;
+
+  private final String address;
+  private volatile ZooKeeper zk;
+  private final CountDownLatch conectado = new CountDownLatch(1);
+
+  // Estado da sessão atual
+  private final Object estado = new Object();
+  private boolean sincronizada = false;
+  private boolean recuperando = false;
+  private volatile boolean fechada = false;
+
+  private final List<Recuperavel> recuperaveis = new CopyOnWriteArrayList<>();
+
+  // Suporte a nós TTL no servidor (null enquanto não testado)
+  private volatile Boolean ttlDisponivel;
+
+  // Medições da última recuperação (System.nanoTime)
+  private volatile long nanosExpiracao;
+  private volatile long nanosReconexao;
+  private volatile long nanosRestauracao;
+  private final AtomicLong recuperacoes = new AtomicLong();
+
+  /**
+   * Primitiva que precisa restaurar seu estado quando a sessão é recriada
+   */
+  public interface Recuperavel {
+    /** Chamado com a nova sessão já conectada */
+    void sessaoRecriada() throws KeeperException, InterruptedException;
+  }
+
+  /**
+   * Operação sobre o ZooKeeper que pode ser repetida com segurança
+   */
+  public interface Operacao<T> {
+    T executar(ZooKeeper zk) throws KeeperException, InterruptedException;
+  }
+
+  /**
+   * Abre a conexão (sem aguardar o estado SYNC_CONNECTED)
+   *
+   * @param address Endereço do ZooKeeper
+   */
+  public VotingConnection(String address) throws IOException {
+    this.address = address;
+    this.zk = new ZooKeeper(address, TIMEOUT_SESSAO_MS, this);
+  }
+
+  /**
+   * Aguarda o estado SYNC_CONNECTED
+   */
+  public VotingConnection aguardarConexao() throws InterruptedException {
+    conectado.await();
+    return this;
+  }
+
+  /**
+   * Handle do ZooKeeper da sessão atual (muda quando a sessão expira)
+   */
+  public ZooKeeper getZk() {
+    return zk;
+  }
+
+  /**
+   * Registra uma primitiva para ser avisada quando a sessão for recriada
+   */
+  public void adicionarRecuperavel(Recuperavel r) {
+    recuperaveis.add(r);
+  }
+
+  public void removerRecuperavel(Recuperavel r) {
+    recuperaveis.remove(r);
+  }
+
+  /**
+   * Executa a operação, repetindo-a após ConnectionLoss ou expiração da
+   * sessão. A operação deve ser idempotente: criações sequenciais usam
+   * {@link #criarProtegido(String, byte[], CreateMode)}
+   */
+  public <T> T executar(Operacao<T> operacao) throws KeeperException, InterruptedException {
+    long prazo = System.currentTimeMillis() + PRAZO_RECUPERACAO_MS;
+    while (true) {
+      try {
+        return operacao.executar(zk);
+      } catch (KeeperException.ConnectionLossException | KeeperException.SessionExpiredException e) {
+        if (!aguardarRepeticao(prazo)) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Cria um nó sequencial de forma segura para repetição: o nome leva um
+   * token único ("prefixo" + token + "-" + sequência), e após ConnectionLoss
+   * o nó é procurado pelo token antes de ser criado novamente. Se o pai não
+   * existe, ele é recriado no modo que {@link VotingLifecycle#preparar} usa:
+   * container para nós efêmeros (barreira, lock, eleição) e persistente para
+   * os demais (a fila nunca pode virar um container removido quando esvazia)
+   *
+   * @param prefixo Caminho do nó sem a sequência (ex.: /fila_votos/voto-)
+   * @param data    Conteúdo do nó
+   * @param modo    PERSISTENT_SEQUENTIAL ou EPHEMERAL_SEQUENTIAL
+   * @return Caminho do nó criado
+   */
+  public String criarProtegido(String prefixo, byte[] data, CreateMode modo)
+      throws KeeperException, InterruptedException {
+    return criarProtegido(prefixo, data, modo, -1);
+  }
+
+  /**
+   * Versão de {@link #criarProtegido(String, byte[], CreateMode)} para nós
+   * com TTL (modo PERSISTENT_SEQUENTIAL_WITH_TTL)
+   *
+   * @param ttl Tempo de vida em ms (-1 para modos sem TTL)
+   */
+  public String criarProtegido(String prefixo, byte[] data, CreateMode modo, long ttl)
+      throws KeeperException, InterruptedException {
+    String pai = prefixo.substring(0, prefixo.lastIndexOf('/'));
+    String protegido = prefixo + novoToken() + "-";
+    String nome = protegido.substring(pai.length() + 1);
+    long prazo = System.currentTimeMillis() + PRAZO_RECUPERACAO_MS;
+    boolean ambiguo = false;
+
+    while (true) {
+      try {
+        if (ambiguo) {
+          // Um ConnectionLoss não diz se a criação foi aplicada
+          for (String filho : zk.getChildren(pai, false)) {
+            if (filho.startsWith(nome)) {
+              return pai + "/" + filho;
+            }
+          }
+        }
+        return zk.create(protegido, data, Ids.OPEN_ACL_UNSAFE, modo, null, ttl);
+      } catch (KeeperException.NoNodeException e) {
+        // Pai container removido pelo servidor quando ficou vazio (ou árvore reiniciada)
+        try {
+          zk.create(pai, new byte[0], Ids.OPEN_ACL_UNSAFE,
+              modo.isEphemeral() ? CreateMode.CONTAINER : CreateMode.PERSISTENT);
+        } catch (KeeperException.NodeExistsException criado) {
+          // Recriado por outro nó
+        }
+      } catch (KeeperException.ConnectionLossException e) {
+        ambiguo = true;
+        if (!aguardarRepeticao(prazo)) {
+          throw e;
+        }
+      } catch (KeeperException.SessionExpiredException e) {
+        // Nós efêmeros da sessão antiga já não existem; persistentes são procurados
+        ambiguo = !modo.isEphemeral();
+        if (!aguardarRepeticao(prazo)) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Se o servidor aceita nós TTL (exige zookeeper.extendedTypesEnabled=true)
+   * O teste cria e remove um nó TTL; só uma resposta definitiva fica guardada
+   * (após ConnectionLoss o teste é repetido na próxima chamada)
+   */
+  public boolean suportaTtl() throws InterruptedException {
+    if (ttlDisponivel == null) {
+      String teste = "/votacao-ttl-" + novoToken();
+      try {
+        zk.create(teste, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_WITH_TTL, null, 1000);
+        ttlDisponivel = true;
+        zk.delete(teste, -1);
+      } catch (KeeperException.ConnectionLossException | KeeperException.SessionExpiredException
+          | KeeperException.OperationTimeoutException e) {
+        // Sem resposta: um nó de teste criado expira sozinho pelo TTL
+        return Boolean.TRUE.equals(ttlDisponivel);
+      } catch (KeeperException e) {
+        // UNIMPLEMENTED: tipos estendidos desligados no servidor
+        if (ttlDisponivel == null) {
+          ttlDisponivel = false;
+        }
+      }
+    }
+    return ttlDisponivel;
+  }
+
+  /** Token aleatório para nomes de nós protegidos */
+  static String novoToken() {
+    return Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+  }
+
+  /** Número de sequência (sufixo de 10 dígitos) de um nó sequencial */
+  static long sequencia(String nome) {
+    return Long.parseLong(nome.substring(nome.length() - 10));
+  }
+
+  /**
+   * Índice da operação que fez um multi falhar: as anteriores voltam como OK
+   * e as seguintes como RUNTIMEINCONSISTENCY (-1 se não há resultados)
+   */
+  static int operacaoComFalha(KeeperException e) {
+    List<OpResult> resultados = e.getResults();
+    if (resultados == null) {
+      return -1;
+    }
+    for (int i = 0; i < resultados.size(); i++) {
+      if (resultados.get(i) instanceof OpResult.ErrorResult) {
+        int erro = ((OpResult.ErrorResult) resultados.get(i)).getErr();
+        if (erro != KeeperException.Code.OK.intValue()
+            && erro != KeeperException.Code.RUNTIMEINCONSISTENCY.intValue()) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Ordena nós sequenciais pela sequência, ignorando o token do nome
+   */
+  static void ordenarPorSequencia(List<String> nomes) {
+    Collections.sort(nomes, Comparator.comparingLong(VotingConnection::sequencia));
+  }
+
+  /**
+   * Aguarda a sessão estar conectada, no máximo pelo prazo de recuperação
+   */
+  public boolean aguardarSessao() throws InterruptedException {
+    return aguardarSessao(System.currentTimeMillis() + PRAZO_RECUPERACAO_MS);
+  }
+
+  /**
+   * Aguarda a sessão estar conectada (a atual ou uma recriada)
+   *
+   * @param prazo Instante limite (System.currentTimeMillis)
+   * @return false se o prazo acabou ou a conexão foi fechada
+   */
+  public boolean aguardarSessao(long prazo) throws InterruptedException {
+    synchronized (estado) {
+      while (!sincronizada && !fechada) {
+        long restante = prazo - System.currentTimeMillis();
+        if (restante <= 0) {
+          return false;
+        }
+        estado.wait(restante);
+      }
+      return !fechada;
+    }
+  }
+
+  private boolean aguardarRepeticao(long prazo) throws InterruptedException {
+    Thread.sleep(PAUSA_REPETICAO_MS);
+    return aguardarSessao(prazo);
+  }
+
+  /**
+   * Força a expiração da sessão atual (injeção de falhas): uma segunda conexão
+   * com o mesmo id de sessão é aberta e fechada, e o servidor encerra a sessão
+   */
+  public void expirarSessao() throws IOException, InterruptedException {
+    ZooKeeper atual = zk;
+    CountDownLatch clone = new CountDownLatch(1);
+    ZooKeeper duplicada = new ZooKeeper(address, TIMEOUT_SESSAO_MS, event -> {
+      if (event.getState() == Event.KeeperState.SyncConnected) {
+        clone.countDown();
+      }
+    }, atual.getSessionId(), atual.getSessionPasswd());
+    clone.await();
+    duplicada.close();
+  }
+
+  /**
+   * Resumo da última recuperação de sessão
+   */
+  public String estatisticas() {
+    if (recuperacoes.get() == 0) {
+      return "nenhuma expiração de sessão";
+    }
+    return String.format("%d recuperações | última: nova sessão em %.1f ms, primitivas restauradas em %.1f ms",
+        recuperacoes.get(), (nanosReconexao - nanosExpiracao) / 1e6, (nanosRestauracao - nanosExpiracao) / 1e6);
+  }
+
+  /** Instante (System.nanoTime) em que a última expiração foi detectada */
+  public long getNanosExpiracao() {
+    return nanosExpiracao;
+  }
+
+  /** Instante (System.nanoTime) em que a nova sessão conectou */
+  public long getNanosReconexao() {
+    return nanosReconexao;
+  }
+
+  /** Instante (System.nanoTime) em que as primitivas foram restauradas */
+  public long getNanosRestauracao() {
+    return nanosRestauracao;
+  }
+
+  /**
+   * Fecha a sessão
+   */
+  public void close() throws InterruptedException {
+    fechada = true;
+    synchronized (estado) {
+      estado.notifyAll();
+    }
+    zk.close();
+  }
+
+  @Override
+  public void process(WatchedEvent event) {
+    switch (event.getState()) {
+      case SyncConnected:
+        boolean restaurar;
+        synchronized (estado) {
+          sincronizada = true;
+          restaurar = recuperando;
+          recuperando = false;
+          estado.notifyAll();
+        }
+        conectado.countDown();
+        if (restaurar) {
+          nanosReconexao = System.nanoTime();
+          restaurarPrimitivas();
+        }
+        break;
+      case Disconnected:
+        synchronized (estado) {
+          sincronizada = false;
+        }
+        break;
+      case Expired:
+        if (!fechada) {
+          recriarSessao();
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /** Abre uma nova sessão no lugar da que expirou */
+  private void recriarSessao() {
+    nanosExpiracao = System.nanoTime();
+    synchronized (estado) {
+      sincronizada = false;
+      recuperando = true;
+    }
+    System.err.println("Sessão 0x" + Long.toHexString(zk.getSessionId()) + " expirada - abrindo nova sessão");
+    try {
+      zk = new ZooKeeper(address, TIMEOUT_SESSAO_MS, this);
+    } catch (IOException e) {
+      System.err.println("Erro ao recriar sessão: " + e.getMessage());
+    }
+  }
+
+  /** Avisa as primitivas fora da thread de eventos (elas fazem chamadas síncronas) */
+  private void restaurarPrimitivas() {
+    List<Recuperavel> lista = new ArrayList<>(recuperaveis);
+    Thread t = new Thread(() -> {
+      for (Recuperavel r : lista) {
+        try {
+          r.sessaoRecriada();
+        } catch (KeeperException e) {
+          System.err.println("Erro ao restaurar primitiva após expiração: " + e.getMessage());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+      nanosRestauracao = System.nanoTime();
+      recuperacoes.incrementAndGet();
+      System.out.println("Sessão: recuperada (0x" + Long.toHexString(zk.getSessionId()) + ") - " + estatisticas());
+    }, "recuperacao-sessao");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /**
+   * Mede o tempo entre a expiração da sessão e a volta à vazão normal, com
+   * eleição, barreira, lock e fila compartilhando a conexão
+   * Uso: VotingConnection [segundosAntes] [segundosDepois]
+   */
+  public static void main(String[] args) throws Exception {
+    long antesMs = (args.length > 0 ? Long.parseLong(args[0]) : 3) * 1000;
+    long depoisMs = (args.length > 1 ? Long.parseLong(args[1]) : 3) * 1000;
+    VotingNamespace namespace = new VotingNamespace("recuperacao-" + novoToken());
+    VotingConnection conexao = new VotingConnection("localhost:2181").aguardarConexao();
+    namespace.garantirRaiz(conexao.getZk());
+
+    VotingLeaderElection eleicao = new VotingLeaderElection(conexao, namespace.eleicao(), namespace.coordenador(), 1);
+    VotingBarrier barreira = new VotingBarrier(conexao, namespace.barrier(), 1);
+    VotingLock lock = new VotingLock(conexao, namespace.lock());
+    VotingQueue fila = new VotingQueue(conexao, namespace.fila());
+    eleicao.elect();
+    barreira.enter();
+
+    // Os logs por operação das primitivas ficam de fora da medição
+    PrintStream saida = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+    AtomicLong produzidos = new AtomicLong();
+    AtomicLong consumidos = new AtomicLong();
+    AtomicBoolean ativo = new AtomicBoolean(true);
+    List<String> lote = Collections.nCopies(16, "A");
+    Thread trabalhador = new Thread(() -> {
+      while (ativo.get()) {
+        try {
+          if (!lock.acquire()) {
+            continue;
+          }
+          try {
+            produzidos.addAndGet(fila.produceLote(lote).size());
+            consumidos.addAndGet(fila.consumeLote(lote.size()).size());
+          } finally {
+            lock.release();
+          }
+        } catch (KeeperException e) {
+          System.err.println("Medição: operação falhou: " + e.getMessage());
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }, "carga-recuperacao");
+    trabalhador.start();
+
+    // Amostras do total consumido a cada 50ms; vazão em janelas de 250ms
+    List<long[]> amostras = new ArrayList<>();
+    long inicio = System.nanoTime();
+    long falha = 0;
+    long plena = 0;
+    double base = 0;
+    while (true) {
+      Thread.sleep(50);
+      long agora = System.nanoTime();
+      amostras.add(new long[] { agora, consumidos.get() });
+      if (falha == 0 && agora - inicio >= antesMs * 1_000_000) {
+        base = consumidos.get() / ((agora - inicio) / 1e9);
+        falha = System.nanoTime();
+        conexao.expirarSessao();
+      } else if (falha != 0) {
+        long[] anterior = amostras.get(Math.max(0, amostras.size() - 6));
+        double vazao = (consumidos.get() - anterior[1]) / ((agora - anterior[0]) / 1e9);
+        if (plena == 0 && anterior[0] > falha && vazao >= 0.9 * base) {
+          plena = agora;
+        }
+        if (agora - falha >= depoisMs * 1_000_000) {
+          break;
+        }
+      }
+    }
+    ativo.set(false);
+    trabalhador.join();
+    List<VotingQueue.Item> resto;
+    while (!(resto = fila.consumeLote(256)).isEmpty()) {
+      consumidos.addAndGet(resto.size());
+    }
+    System.setOut(saida);
+
+    System.out.printf("Vazão antes da falha: %.0f votos/s%n", base);
+    System.out.printf("Expiração detectada em %.1f ms | nova sessão em %.1f ms | primitivas restauradas em %.1f ms"
+        + " | vazão plena (>= 90%%) em %s%n", (conexao.nanosExpiracao - falha) / 1e6,
+        (conexao.nanosReconexao - falha) / 1e6, (conexao.nanosRestauracao - falha) / 1e6,
+        plena == 0 ? "não recuperada" : String.format("%.1f ms", (plena - falha) / 1e6));
+
+    ZooKeeper zk = conexao.getZk();
+    System.out.println("Consistência: produzidos=" + produzidos.get() + " consumidos=" + consumidos.get()
+        + " | líder=" + eleicao.isLeader() + " (coordenador " + eleicao.getCurrentLeader() + ")"
+        + " | presença na barreira=" + zk.getChildren(namespace.barrier(), false).size()
+        + " | nós de lock restantes=" + zk.getChildren(namespace.lock(), false).size());
+
+    new VotingLifecycle(conexao).encerrar(namespace);
+    conexao.close();
+  }
+}
@@ -0,0 +1,137 @@
+package src.votacao;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Detecção antecipada do vencedor, executada pelo líder durante a contagem
+ * Combina o placar global do checkpoint (deltas aplicados) com um limite
+ * superior dos votos restantes e publica o resultado "decidido" assim que o
+ * primeiro colocado não pode mais ser alcançado. O limite é o número de filhos
+ * da fila, que também inclui recibos e resultados de consumo: nunca é menor
+ * que os votos restantes. Só é válida com a urna fechada: enquanto o znode
+ * da urna aberta existir, nada é anunciado. Fechada a urna, o Op.check de
+ * cada produtor garante que nenhum voto novo entra na fila
+ */
+public class VotingEarlyDecision implements Runnable {
+
+  private final VotingConnection conexao;
+  private final VotingNamespace namespace;
+  private final VotingCheckpoint checkpoint;
+  private final long intervaloMs;
+  private volatile boolean ativo = true;
+
+  /**
+   * Construtor do detector
+   *
+   * @param conexao     Conexão com o ZooKeeper
+   * @param namespace   Namespace da eleição
+   * @param checkpoint  Checkpoint do líder, de onde vem o placar global
+   * @param intervaloMs Intervalo entre avaliações
+   */
+  public VotingEarlyDecision(VotingConnection conexao, VotingNamespace namespace, VotingCheckpoint checkpoint,
+      long intervaloMs) {
+    this.conexao = conexao;
+    this.namespace = namespace;
+    this.checkpoint = checkpoint;
+    this.intervaloMs = intervaloMs;
+  }
+
+  /**
+   * Inicia o detector em uma thread daemon
+   */
+  public Thread iniciar() {
+    Thread t = new Thread(this, "decisao-antecipada");
+    t.setDaemon(true);
+    t.start();
+    return t;
+  }
+
+  /**
+   * Interrompe as avaliações (a contagem final continua normalmente)
+   */
+  public void parar() {
+    ativo = false;
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (ativo) {
+        try {
+          if (avaliar()) {
+            return;
+          }
+        } catch (KeeperException.ConnectionLossException | KeeperException.SessionExpiredException e) {
+          // Sessão em recuperação: avalia de novo na próxima rodada
+        }
+        Thread.sleep(intervaloMs);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (KeeperException e) {
+      System.err.println("Decisão antecipada: erro ao avaliar placar: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Avalia o placar uma vez
+   *
+   * @return true se o resultado foi (ou já estava) decidido
+   */
+  public boolean avaliar() throws KeeperException, InterruptedException {
+    ZooKeeper zk = conexao.getZk();
+    if (zk.exists(namespace.decidido(), false) != null) {
+      return true;
+    }
+    if (zk.exists(namespace.urnaAberta(), false) != null) {
+      return false; // Urna aberta: votos ainda podem entrar na fila
+    }
+
+    // A fila é lida ANTES do placar: um lote sai da fila no mesmo multi que
+    // cria o seu delta, então um voto que sai depois desta leitura já está no
+    // placar aplicado a seguir
+    Stat fila = zk.exists(namespace.fila(), false);
+    long restantes = fila == null ? 0 : fila.getNumChildren();
+    Map<String, Integer> global = checkpoint.placar();
+
+    String primeiro = null;
+    int votosPrimeiro = 0;
+    int votosSegundo = 0;
+    for (Map.Entry<String, Integer> e : global.entrySet()) {
+      if (e.getValue() > votosPrimeiro) {
+        votosSegundo = votosPrimeiro;
+        votosPrimeiro = e.getValue();
+        primeiro = e.getKey();
+      } else if (e.getValue() > votosSegundo) {
+        votosSegundo = e.getValue();
+      }
+    }
+
+    // Empate nunca é decidido antecipadamente
+    if (primeiro == null || votosPrimeiro <= votosSegundo + restantes) {
+      return false;
+    }
+
+    if (!ativo) {
+      return false; // Parado (liderança perdida) durante a avaliação
+    }
+    String anuncio = "vencedor=" + primeiro + ";votos=" + votosPrimeiro + ";segundo=" + votosSegundo
+        + ";restantes=" + restantes;
+    try {
+      zk.create(namespace.decidido(), anuncio.getBytes(StandardCharsets.UTF_8), Ids.OPEN_ACL_UNSAFE,
+          CreateMode.PERSISTENT);
+      System.out.println("RESULTADO DECIDIDO: Candidato " + primeiro + " com " + votosPrimeiro
+          + " votos (segundo: " + votosSegundo + ", restantes no máximo: " + restantes + ")");
+    } catch (KeeperException.NodeExistsException e) {
+      // Já anunciado
+    }
+    return true;
+  }
+}
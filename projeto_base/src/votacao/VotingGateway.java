@@ -0,0 +1,583 @@
+package src.votacao;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.OpResult;
+
+/**
+ * Gateway de ingestão de votos para terminais externos
+ * Servidor TCP não bloqueante (NIO, uma thread): cada linha recebida é um voto
+ * (o nome do candidato), respondido com "OK voto-token-NNNNNNNNNN" ou "ERRO motivo"
+ * na mesma ordem das linhas. Os votos válidos são agrupados em lotes gravados
+ * na fila com um único multi assíncrono, e a confirmação só é enviada depois
+ * que o lote foi persistido no ZooKeeper. A memória é limitada por conexão
+ * (buffer de leitura fixo e no máximo {@link #MAX_PENDENTES_CONEXAO} votos sem
+ * resposta) e pelo número de lotes em voo. Um watch no znode da urna faz o
+ * gateway recusar votos novos ("ERRO urna fechada") assim que ela fecha; a
+ * garantia vem do Op.check da urna no multi de cada lote
+ */
+public class VotingGateway implements Runnable {
+
+  private static final String ZK_ADDRESS = "localhost:2181";
+
+  /** Tamanho máximo de uma linha (voto) em bytes */
+  private static final int MAX_LINHA = 256;
+
+  /** Votos sem resposta por conexão antes de parar de ler o socket */
+  private static final int MAX_PENDENTES_CONEXAO = 64;
+
+  /** Lotes aguardando confirmação do ZooKeeper ao mesmo tempo */
+  private static final int MAX_LOTES_EM_VOO = 8;
+
+  private final VotingQueue fila;
+  private final VotingVerifier assinador;
+  private final Set<String> candidatos;
+  private final int tamanhoLote;
+  private final long atrasoMaxMs;
+  private final String idGateway;
+
+  private final Selector selector;
+  private final ServerSocketChannel servidor;
+
+  // Estado da thread do selector
+  private final List<Pendente> loteAtual = new ArrayList<>();
+  private long inicioLote;
+  private int lotesEmVoo;
+  private long sequencia;
+  private boolean urnaAberta = true;
+  private volatile boolean verificarUrna = true; // Pedido pelo watch da urna
+
+  private final ConcurrentLinkedQueue<Confirmacao> confirmacoes = new ConcurrentLinkedQueue<>();
+  private final CountDownLatch encerrado = new CountDownLatch(1);
+  private volatile boolean ativo = true;
+
+  private final AtomicLong aceitos = new AtomicLong();
+  private final AtomicLong rejeitados = new AtomicLong();
+  private final AtomicLong lotes = new AtomicLong();
+
+  /**
+   * Construtor do gateway
+   *
+   * @param porta       Porta TCP de escuta
+   * @param fila        Fila de votos da eleição
+   * @param assinador   Assina os votos na ingestão (null para votos sem assinatura)
+   * @param candidatos  Candidatos aceitos (null aceita qualquer nome válido)
+   * @param tamanhoLote Votos por multi
+   * @param atrasoMaxMs Tempo máximo que um voto espera o lote encher
+   */
+  public VotingGateway(int porta, VotingQueue fila, VotingVerifier assinador, Set<String> candidatos,
+      int tamanhoLote, long atrasoMaxMs) throws IOException {
+    this.fila = fila;
+    this.assinador = assinador;
+    this.candidatos = candidatos;
+    this.tamanhoLote = tamanhoLote;
+    this.atrasoMaxMs = atrasoMaxMs;
+    // Único por instância: prefixo do idVoto dos votos assinados aqui
+    this.idGateway = "g" + VotingConnection.novoToken();
+
+    this.selector = Selector.open();
+    this.servidor = ServerSocketChannel.open();
+    servidor.configureBlocking(false);
+    servidor.bind(new InetSocketAddress(porta), 1024);
+    servidor.register(selector, SelectionKey.OP_ACCEPT);
+  }
+
+  /**
+   * Inicia o gateway em uma thread própria
+   */
+  public Thread iniciar() {
+    Thread t = new Thread(this, "gateway-votos");
+    t.start();
+    System.out.println("Gateway: aceitando votos na porta " + servidor.socket().getLocalPort());
+    return t;
+  }
+
+  /**
+   * Para de aceitar votos, grava o lote pendente e aguarda as confirmações
+   */
+  public void parar() throws InterruptedException {
+    ativo = false;
+    selector.wakeup();
+    encerrado.await();
+    System.out.println("Gateway: encerrado - " + estatisticas());
+  }
+
+  public String estatisticas() {
+    return aceitos.get() + " votos aceitos em " + lotes.get() + " lotes, " + rejeitados.get() + " rejeitados";
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (ativo || lotesEmVoo > 0 || !loteAtual.isEmpty()) {
+        if (!ativo && servidor.isOpen()) {
+          servidor.close(); // Urna fechada: nenhuma conexão nova
+        }
+        if (verificarUrna) {
+          atualizarUrna();
+        }
+
+        long espera = loteAtual.isEmpty() ? 0
+            : Math.max(1, atrasoMaxMs - (System.currentTimeMillis() - inicioLote));
+        selector.select(espera);
+
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            aceitar();
+          } else {
+            Conexao conexao = (Conexao) key.attachment();
+            if (key.isReadable()) {
+              ler(conexao);
+            }
+            if (key.isValid() && key.isWritable()) {
+              conexao.escrever();
+            }
+          }
+        }
+
+        processarConfirmacoes();
+        if (!loteAtual.isEmpty() && (loteAtual.size() >= tamanhoLote || !ativo
+            || System.currentTimeMillis() - inicioLote >= atrasoMaxMs)) {
+          enviarLote();
+        }
+      }
+    } catch (IOException e) {
+      System.err.println("Gateway: erro no selector: " + e.getMessage());
+    } finally {
+      for (SelectionKey key : selector.keys()) {
+        if (key.attachment() instanceof Conexao) {
+          ((Conexao) key.attachment()).fechar();
+        }
+      }
+      try {
+        servidor.close();
+        selector.close();
+      } catch (IOException ignore) {
+      }
+      encerrado.countDown();
+    }
+  }
+
+  /* ====================== Conexões ====================== */
+
+  private void aceitar() throws IOException {
+    SocketChannel canal;
+    while ((canal = servidor.accept()) != null) {
+      canal.configureBlocking(false);
+      canal.socket().setTcpNoDelay(true);
+      Conexao conexao = new Conexao(canal);
+      conexao.key = canal.register(selector, SelectionKey.OP_READ, conexao);
+    }
+  }
+
+  private void ler(Conexao conexao) {
+    int lidos;
+    try {
+      lidos = conexao.canal.read(conexao.leitura);
+    } catch (IOException e) {
+      conexao.fechar();
+      return;
+    }
+    if (lidos < 0) {
+      conexao.fechar();
+      return;
+    }
+
+    ByteBuffer buf = conexao.leitura;
+    buf.flip();
+    int inicio = buf.position();
+    for (int i = buf.position(); i < buf.limit(); i++) {
+      if (buf.get(i) == '\n') {
+        int fim = i > inicio && buf.get(i - 1) == '\r' ? i - 1 : i;
+        byte[] linha = new byte[fim - inicio];
+        buf.get(inicio, linha);
+        receberVoto(conexao, new String(linha, StandardCharsets.UTF_8));
+        inicio = i + 1;
+      }
+    }
+    buf.position(inicio);
+    buf.compact();
+
+    if (!buf.hasRemaining()) {
+      // Linha maior que o buffer: protocolo violado
+      conexao.responder("ERRO linha muito longa");
+      conexao.escrever();
+      conexao.fechar();
+      return;
+    }
+    conexao.atualizarInteresse();
+  }
+
+  private void receberVoto(Conexao conexao, String candidato) {
+    Resposta resposta = new Resposta();
+    conexao.respostas.add(resposta);
+
+    String erro = validar(candidato);
+    if (erro != null || !ativo || !urnaAberta) {
+      rejeitados.incrementAndGet();
+      resposta.texto = "ERRO " + (erro != null ? erro : "urna fechada");
+      conexao.escrever();
+      return;
+    }
+
+    String voto = assinador != null ? assinador.assinar(idGateway + "-" + (sequencia++), candidato) : candidato;
+    if (loteAtual.isEmpty()) {
+      inicioLote = System.currentTimeMillis();
+    }
+    loteAtual.add(new Pendente(conexao, resposta, voto));
+  }
+
+  private String validar(String candidato) {
+    if (candidato.isEmpty()) {
+      return "voto vazio";
+    }
+    if (candidato.length() > MAX_LINHA) {
+      return "voto muito longo";
+    }
+    // Voto com dimensões: "secao=12,regiao=Norte@A" (ver VotingTally)
+    int arroba = candidato.lastIndexOf('@');
+    String nome = candidato.substring(arroba + 1);
+    if (nome.isEmpty()) {
+      return "voto vazio";
+    }
+    for (int i = 0; i < candidato.length(); i++) {
+      char c = candidato.charAt(i);
+      if (Character.isISOControl(c) || c == '|' || c == ';' || (c == '=' && i > arroba)) {
+        return "caractere inválido";
+      }
+    }
+    if (arroba >= 0) {
+      for (String dimensao : candidato.substring(0, arroba).split(",", -1)) {
+        if (dimensao.indexOf('=') <= 0 || dimensao.indexOf('@') >= 0) {
+          return "dimensão inválida";
+        }
+      }
+    }
+    if (candidatos != null && !candidatos.contains(nome)) {
+      return "candidato desconhecido";
+    }
+    return null;
+  }
+
+  /** Relê o znode da urna, deixando um watch que pede nova leitura quando ele mudar */
+  private void atualizarUrna() {
+    verificarUrna = false;
+    try {
+      boolean aberta = fila.urnaAberta(() -> {
+        verificarUrna = true;
+        selector.wakeup();
+      });
+      if (aberta != urnaAberta) {
+        System.out.println("Gateway: urna " + (aberta ? "aberta" : "fechada - votos novos são recusados"));
+      }
+      urnaAberta = aberta;
+    } catch (KeeperException e) {
+      // Segue com o último estado conhecido: a cerca do multi continua valendo
+      System.err.println("Gateway: erro ao verificar a urna: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      ativo = false;
+    }
+  }
+
+  /* ====================== Lotes ====================== */
+
+  private void enviarLote() {
+    // Contrapressão: acima do limite de lotes em voo os votos esperam aqui,
+    // limitados pelas conexões que pararam de ser lidas
+    while (!loteAtual.isEmpty() && lotesEmVoo < MAX_LOTES_EM_VOO) {
+      List<Pendente> parte = loteAtual.subList(0, Math.min(tamanhoLote, loteAtual.size()));
+      List<Pendente> lote = new ArrayList<>(parte);
+      parte.clear();
+
+      List<String> votos = new ArrayList<>(lote.size());
+      for (Pendente p : lote) {
+        votos.add(p.voto);
+      }
+      lotesEmVoo++;
+      fila.produceLote(votos, (rc, path, ctx, resultados) -> {
+        confirmacoes.add(new Confirmacao(lote, rc, path, resultados));
+        selector.wakeup();
+      }, null);
+    }
+    inicioLote = System.currentTimeMillis();
+  }
+
+  private void processarConfirmacoes() {
+    Confirmacao confirmacao;
+    Set<Conexao> afetadas = new HashSet<>();
+    while ((confirmacao = confirmacoes.poll()) != null) {
+      lotesEmVoo--;
+      boolean ok = confirmacao.rc == KeeperException.Code.OK.intValue();
+      if (ok) {
+        aceitos.addAndGet(confirmacao.lote.size());
+        lotes.incrementAndGet();
+      } else {
+        rejeitados.addAndGet(confirmacao.lote.size());
+        System.err.println("Gateway: lote rejeitado pelo ZooKeeper: " + KeeperException.Code.get(confirmacao.rc)
+            + (confirmacao.path != null ? " (" + confirmacao.path + ")" : ""));
+      }
+
+      // NONODE com o caminho da urna: o Op.check do multi viu a urna fechada
+      boolean fechada = !ok && confirmacao.path != null && confirmacao.path.equals(fila.getUrna());
+      if (fechada) {
+        urnaAberta = false; // Vale mesmo se o watch se perdeu com a sessão
+      }
+      for (int i = 0; i < confirmacao.lote.size(); i++) {
+        Pendente p = confirmacao.lote.get(i);
+        if (ok) {
+          String path = ((OpResult.CreateResult) confirmacao.resultados.get(i)).getPath();
+          p.resposta.texto = "OK " + path.substring(path.lastIndexOf('/') + 1);
+        } else {
+          p.resposta.texto = fechada ? "ERRO urna fechada" : "ERRO fila indisponível";
+        }
+        afetadas.add(p.conexao);
+      }
+    }
+    for (Conexao conexao : afetadas) {
+      conexao.escrever();
+    }
+  }
+
+  /** Voto aguardando gravação */
+  private static final class Pendente {
+    final Conexao conexao;
+    final Resposta resposta;
+    final String voto;
+
+    Pendente(Conexao conexao, Resposta resposta, String voto) {
+      this.conexao = conexao;
+      this.resposta = resposta;
+      this.voto = voto;
+    }
+  }
+
+  /** Resposta de uma linha; texto null enquanto o voto não foi confirmado */
+  private static final class Resposta {
+    String texto;
+  }
+
+  /** Resultado de um multi, entregue pela thread do ZooKeeper */
+  private static final class Confirmacao {
+    final List<Pendente> lote;
+    final int rc;
+    final String path;
+    final List<OpResult> resultados;
+
+    Confirmacao(List<Pendente> lote, int rc, String path, List<OpResult> resultados) {
+      this.lote = lote;
+      this.rc = rc;
+      this.path = path;
+      this.resultados = resultados;
+    }
+  }
+
+  /** Estado de uma conexão de terminal */
+  private final class Conexao {
+    final SocketChannel canal;
+    final ByteBuffer leitura = ByteBuffer.allocate(MAX_LINHA * 2);
+    final ArrayDeque<Resposta> respostas = new ArrayDeque<>();
+    ByteBuffer saida; // alocado só enquanto há resposta a enviar
+    SelectionKey key;
+    boolean fechada;
+
+    Conexao(SocketChannel canal) {
+      this.canal = canal;
+    }
+
+    void responder(String texto) {
+      Resposta r = new Resposta();
+      r.texto = texto;
+      respostas.add(r);
+    }
+
+    /** Envia as respostas prontas, respeitando a ordem das linhas */
+    void escrever() {
+      if (fechada) {
+        return;
+      }
+      try {
+        while (true) {
+          if (saida == null || !saida.hasRemaining()) {
+            saida = montarSaida();
+            if (saida == null) {
+              break;
+            }
+          }
+          if (canal.write(saida) == 0) {
+            break; // Socket cheio: espera OP_WRITE
+          }
+        }
+      } catch (IOException e) {
+        fechar();
+        return;
+      }
+      atualizarInteresse();
+    }
+
+    private ByteBuffer montarSaida() {
+      StringBuilder sb = new StringBuilder();
+      while (!respostas.isEmpty() && respostas.peek().texto != null && sb.length() < 4096) {
+        sb.append(respostas.poll().texto).append('\n');
+      }
+      return sb.length() == 0 ? null : ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    void atualizarInteresse() {
+      if (fechada || !key.isValid()) {
+        return;
+      }
+      int interesse = 0;
+      if (respostas.size() < MAX_PENDENTES_CONEXAO) {
+        interesse |= SelectionKey.OP_READ;
+      }
+      if (saida != null && saida.hasRemaining()) {
+        interesse |= SelectionKey.OP_WRITE;
+      }
+      key.interestOps(interesse);
+    }
+
+    void fechar() {
+      if (fechada) {
+        return;
+      }
+      fechada = true;
+      if (key != null) {
+        key.cancel();
+      }
+      try {
+        canal.close();
+      } catch (IOException ignore) {
+      }
+    }
+  }
+
+  /**
+   * Executa o gateway na porta indicada até ser interrompido
+   * Uso: VotingGateway [porta] [eleicao]
+   * Gerador de carga: VotingGateway carga [host] [porta] [conexoes] [votosPorConexao]
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0 && args[0].equals("carga")) {
+      gerarCarga(args.length > 1 ? args[1] : "localhost", args.length > 2 ? Integer.parseInt(args[2]) : 7000,
+          args.length > 3 ? Integer.parseInt(args[3]) : 1000, args.length > 4 ? Integer.parseInt(args[4]) : 100);
+      return;
+    }
+
+    int porta = args.length > 0 ? Integer.parseInt(args[0]) : 7000;
+    VotingNamespace namespace = args.length > 1 ? new VotingNamespace(args[1]) : VotingNamespace.padrao();
+
+    VotingConnection conexao = new VotingConnection(ZK_ADDRESS).aguardarConexao();
+    namespace.garantirRaiz(conexao.getZk());
+    VotingQueue fila = new VotingQueue(conexao, namespace.fila());
+    fila.setUrna(namespace.urnaAberta());
+    VotingGateway gateway = new VotingGateway(porta, fila, VotingVerifier.doAmbiente(), null, 256, 5);
+    gateway.iniciar();
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        gateway.parar();
+      } catch (InterruptedException ignore) {
+      }
+    }));
+  }
+
+  /** Abre várias conexões simultâneas, envia os votos e mede a vazão confirmada */
+  private static void gerarCarga(String host, int porta, int numConexoes, int votosPorConexao) throws IOException {
+    String[] opcoes = { "A", "B", "C" };
+    Selector sel = Selector.open();
+    long inicio = System.nanoTime();
+
+    for (int c = 0; c < numConexoes; c++) {
+      StringBuilder sb = new StringBuilder();
+      for (int v = 0; v < votosPorConexao; v++) {
+        sb.append(opcoes[(c + v) % opcoes.length]).append('\n');
+      }
+      SocketChannel canal = SocketChannel.open();
+      canal.configureBlocking(false);
+      canal.connect(new InetSocketAddress(host, porta));
+      canal.register(sel, SelectionKey.OP_CONNECT,
+          new Object[] { ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)), new int[2] });
+    }
+
+    int abertas = numConexoes;
+    long ok = 0;
+    long erros = 0;
+    ByteBuffer leitura = ByteBuffer.allocate(64 * 1024);
+    while (abertas > 0) {
+      sel.select();
+      Iterator<SelectionKey> it = sel.selectedKeys().iterator();
+      while (it.hasNext()) {
+        SelectionKey key = it.next();
+        it.remove();
+        SocketChannel canal = (SocketChannel) key.channel();
+        Object[] estado = (Object[]) key.attachment();
+        ByteBuffer envio = (ByteBuffer) estado[0];
+        int[] contagem = (int[]) estado[1]; // [respostas, inicioLinhaOk]
+        try {
+          if (key.isConnectable()) {
+            canal.finishConnect();
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          }
+          if (key.isValid() && key.isWritable()) {
+            canal.write(envio);
+            if (!envio.hasRemaining()) {
+              key.interestOps(SelectionKey.OP_READ);
+            }
+          }
+          if (key.isValid() && key.isReadable()) {
+            leitura.clear();
+            int n = canal.read(leitura);
+            for (int i = 0; i < n; i++) {
+              byte b = leitura.get(i);
+              if (contagem[1] == 0) {
+                if (b == 'O')
+                  ok++;
+                else
+                  erros++;
+                contagem[1] = 1;
+              }
+              if (b == '\n') {
+                contagem[0]++;
+                contagem[1] = 0;
+              }
+            }
+            if (n < 0 || contagem[0] >= votosPorConexao) {
+              canal.close();
+              abertas--;
+            }
+          }
+        } catch (IOException e) {
+          canal.close();
+          abertas--;
+        }
+      }
+    }
+
+    double segundos = (System.nanoTime() - inicio) / 1e9;
+    System.out.printf("Carga: %d conexões, %d votos confirmados, %d erros em %.2fs | %.0f votos/s%n", numConexoes,
+        ok, erros, segundos, ok / segundos);
+  }
+}
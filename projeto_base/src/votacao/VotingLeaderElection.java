@@ -1,8 +1,9 @@
 package src.votacao;
 
 import java.io.IOException;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
@@ -16,16 +17,28 @@ import org.apache.zookeeper.data.Stat;
 /**
  * Implementação de Leader Election usando ZooKeeper
  * Elege um coordenador para gerenciar o processo de votação
+ * Se a sessão expira, o candidato perde a liderança e volta à eleição com a
+ * nova sessão. Eventos de watch são tratados fora da thread de eventos do
+ * ZooKeeper: as chamadas síncronas de {@link VotingConnection#executar}
+ * aguardam eventos de sessão entregues por essa mesma thread
  */
-public class VotingLeaderElection implements Watcher {
+public class VotingLeaderElection implements Watcher, VotingConnection.Recuperavel {
 
-  private ZooKeeper zk;
+  private VotingConnection conexao;
   private String root;
   private String leaderPath;
   private String currentPath;
   private int nodeId;
   private Object mutex = new Object();
-  private boolean isLeader = false;
+  private volatile boolean isLeader = false;
+  private volatile Runnable aoAssumir;
+  private volatile Runnable aoPerder;
+
+  private final ExecutorService eventos = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "eleicao-eventos");
+    t.setDaemon(true);
+    return t;
+  });
 
   /**
    * Construtor da Leader Election
@@ -36,17 +49,33 @@ public class VotingLeaderElection implements Watcher {
    * @param nodeId     ID único do nó
    */
   public VotingLeaderElection(String address, String root, String leaderPath, int nodeId) throws IOException {
+    this(new VotingConnection(address), root, leaderPath, nodeId);
+  }
+
+  /**
+   * Construtor da Leader Election sobre uma conexão compartilhada
+   * 
+   * @param conexao    Conexão com o ZooKeeper
+   * @param root       Caminho raiz da eleição
+   * @param leaderPath Caminho do nó líder
+   * @param nodeId     ID único do nó
+   */
+  public VotingLeaderElection(VotingConnection conexao, String root, String leaderPath, int nodeId) {
     this.root = root;
     this.leaderPath = leaderPath;
     this.nodeId = nodeId;
-    this.zk = new ZooKeeper(address, 3000, this);
+    this.conexao = conexao;
 
     try {
       // Criar o nó raiz se não existir
+      ZooKeeper zk = conexao.getZk();
       Stat s = zk.exists(root, false);
       if (s == null) {
-        zk.create(root, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        // Container: removido pelo servidor quando fica vazio
+        zk.create(root, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.CONTAINER);
       }
+    } catch (KeeperException.NodeExistsException e) {
+      // Criado por outro nó
     } catch (KeeperException e) {
       System.err.println("Erro ao criar nó raiz da eleição: " + e.getMessage());
     } catch (InterruptedException e) {
@@ -61,21 +90,47 @@ public class VotingLeaderElection implements Watcher {
    */
   public boolean elect() throws KeeperException, InterruptedException {
     // Criar nó ephemeral sequencial para participar da eleição
-    String prefix = root + "/candidate-";
-    currentPath = zk.create(prefix, Integer.toString(nodeId).getBytes(),
-        Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
-
+    conexao.adicionarRecuperavel(this);
+    candidatar();
     System.out.println("Election: Nó " + nodeId + " participando em " + currentPath);
 
     return checkLeadership();
   }
 
+  private void candidatar() throws KeeperException, InterruptedException {
+    currentPath = conexao.criarProtegido(root + "/candidate-", Integer.toString(nodeId).getBytes(),
+        CreateMode.EPHEMERAL_SEQUENTIAL);
+  }
+
+  /**
+   * Volta à eleição após a expiração da sessão: o candidato e o nó de líder
+   * efêmeros se perderam, então um novo candidato é criado e o watch refeito
+   */
+  @Override
+  public void sessaoRecriada() throws KeeperException, InterruptedException {
+    synchronized (mutex) {
+      if (currentPath == null) {
+        return; // Não participa mais
+      }
+      boolean eraLider = isLeader;
+      isLeader = false;
+      Runnable acao = aoPerder;
+      if (eraLider && acao != null) {
+        acao.run();
+      }
+      candidatar();
+      System.out.println("Election: Nó " + nodeId + " voltou à eleição após expiração da sessão em " + currentPath
+          + (eraLider ? " (liderança perdida)" : ""));
+      checkLeadership();
+    }
+  }
+
   /**
    * Verifica se este nó é o líder
    */
   private boolean checkLeadership() throws KeeperException, InterruptedException {
-    List<String> candidates = zk.getChildren(root, false);
-    Collections.sort(candidates);
+    List<String> candidates = conexao.executar(zk -> zk.getChildren(root, false));
+    VotingConnection.ordenarPorSequencia(candidates);
 
     // Filtrar apenas candidatos válidos
     String myNode = currentPath.substring(root.length() + 1);
@@ -98,23 +153,48 @@ public class VotingLeaderElection implements Watcher {
     return false;
   }
 
+  /**
+   * Define a ação executada quando este nó assume a liderança (na eleição
+   * inicial ou ao suceder um líder que caiu), em uma thread própria
+   */
+  public void setAoAssumir(Runnable aoAssumir) {
+    this.aoAssumir = aoAssumir;
+  }
+
+  /**
+   * Define a ação executada quando este nó perde a liderança (sessão
+   * expirada), antes de voltar à eleição. Deve ser rápida: só interrompe o
+   * trabalho de coordenação
+   */
+  public void setAoPerder(Runnable aoPerder) {
+    this.aoPerder = aoPerder;
+  }
+
   /**
    * Torna-se o líder
    */
   private void becomeLeader() throws KeeperException, InterruptedException {
+    boolean assumiu = !isLeader;
     isLeader = true;
 
-    // Criar/atualizar nó do líder
+    // Criar/atualizar nó do líder (idempotente: seguro para repetir)
     try {
-      Stat s = zk.exists(leaderPath, false);
-      if (s == null) {
-        zk.create(leaderPath, Integer.toString(nodeId).getBytes(),
-            Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
-      } else {
-        zk.setData(leaderPath, Integer.toString(nodeId).getBytes(), -1);
-      }
+      conexao.executar(zk -> {
+        try {
+          zk.create(leaderPath, Integer.toString(nodeId).getBytes(), Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+        } catch (KeeperException.NodeExistsException e) {
+          zk.setData(leaderPath, Integer.toString(nodeId).getBytes(), -1);
+        }
+        return null;
+      });
 
       System.out.println("Election: Nó " + nodeId + " ELEITO COMO LÍDER!");
+      Runnable acao = aoAssumir;
+      if (assumiu && acao != null) {
+        Thread t = new Thread(acao, "lider-assumiu");
+        t.setDaemon(true);
+        t.start();
+      }
 
     } catch (KeeperException e) {
       System.err.println("Erro ao criar nó de líder: " + e.getMessage());
@@ -128,7 +208,7 @@ public class VotingLeaderElection implements Watcher {
     String previousPath = root + "/" + previousCandidate;
 
     synchronized (mutex) {
-      Stat s = zk.exists(previousPath, this);
+      Stat s = conexao.executar(zk -> zk.exists(previousPath, this));
       if (s == null) {
         // Candidato anterior já saiu, verificar liderança novamente
         checkLeadership();
@@ -150,7 +230,7 @@ public class VotingLeaderElection implements Watcher {
    */
   public int getCurrentLeader() throws KeeperException, InterruptedException {
     try {
-      byte[] data = zk.getData(leaderPath, false, null);
+      byte[] data = conexao.executar(zk -> zk.getData(leaderPath, false, null));
       return Integer.parseInt(new String(data));
     } catch (KeeperException.NoNodeException e) {
       return -1; // Nenhum líder atualmente
@@ -161,34 +241,52 @@ public class VotingLeaderElection implements Watcher {
    * Abandona a eleição
    */
   public void resign() throws KeeperException, InterruptedException {
+    conexao.removerRecuperavel(this);
     if (currentPath != null) {
-      zk.delete(currentPath, -1);
+      String path = currentPath;
       currentPath = null;
+      try {
+        conexao.executar(zk -> {
+          zk.delete(path, -1);
+          return null;
+        });
+      } catch (KeeperException.NoNodeException e) {
+        // Perdido com a sessão ou removido por uma repetição
+      }
     }
 
     if (isLeader && leaderPath != null) {
       try {
-        zk.delete(leaderPath, -1);
+        conexao.getZk().delete(leaderPath, -1);
       } catch (KeeperException.NoNodeException e) {
         // Nó já foi removido
       }
       isLeader = false;
     }
 
+    eventos.shutdown();
     System.out.println("Election: Nó " + nodeId + " abandonou a eleição");
   }
 
   @Override
   public void process(WatchedEvent event) {
-    synchronized (mutex) {
-      if (event.getType() == Event.EventType.NodeDeleted) {
+    if (event.getType() != Event.EventType.NodeDeleted || eventos.isShutdown()) {
+      return;
+    }
+    // Candidato anterior saiu: verifica a liderança em outra thread
+    eventos.execute(() -> {
+      synchronized (mutex) {
+        if (currentPath == null) {
+          return; // Abandonou a eleição
+        }
         try {
-          // Candidato anterior saiu, verificar liderança
           checkLeadership();
-        } catch (Exception e) {
+        } catch (KeeperException e) {
           System.err.println("Erro ao processar evento de eleição: " + e.getMessage());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
         }
       }
-    }
+    });
   }
 }
@@ -0,0 +1,263 @@
+package src.votacao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+
+/**
+ * Ciclo de vida de uma eleição no ZooKeeper
+ * Remove o estado de execuções anteriores com multis em lote, cria a árvore
+ * da eleição em uma única transação e usa nós container para as estruturas
+ * transitórias (barreira, lock e eleição de coordenador), que o servidor
+ * remove sozinho quando ficam vazias
+ */
+public class VotingLifecycle {
+
+  /** Remoções por multi (mantém a requisição bem abaixo do jute.maxbuffer) */
+  private static final int REMOCOES_POR_MULTI = 1000;
+
+  private final VotingConnection conexao;
+
+  /**
+   * Construtor do ciclo de vida
+   *
+   * @param conexao Conexão com o ZooKeeper
+   */
+  public VotingLifecycle(VotingConnection conexao) {
+    this.conexao = conexao;
+  }
+
+  /**
+   * Garante a árvore completa da eleição, criando em um único multi o que
+   * ainda não existe. Não apaga nada: pode ser chamado por todos os nós
+   */
+  public void preparar(VotingNamespace namespace) throws KeeperException, InterruptedException {
+    ZooKeeper zk = conexao.getZk();
+    namespace.garantirRaiz(zk);
+    while (true) {
+      List<Op> criacoes = new ArrayList<>();
+      for (String path : new String[] { namespace.fila(), namespace.resultado(), namespace.invalidos(),
+          namespace.contados(), namespace.auditoria(), namespace.deltas(), namespace.checkpoint() }) {
+        if (zk.exists(path, false) == null) {
+          criacoes.add(Op.create(path, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+        }
+      }
+      for (String path : new String[] { namespace.barrier(), namespace.lock(), namespace.eleicao() }) {
+        if (zk.exists(path, false) == null) {
+          criacoes.add(Op.create(path, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.CONTAINER));
+        }
+      }
+      if (criacoes.isEmpty()) {
+        return;
+      }
+      try {
+        zk.multi(criacoes);
+        return;
+      } catch (KeeperException.NodeExistsException e) {
+        // Outro nó preparou parte da árvore ao mesmo tempo: confere de novo
+      }
+    }
+  }
+
+  /**
+   * Descarta os dados de uma execução anterior (fila e tudo o que
+   * {@link #descartarApuracao} remove) e recria a árvore.
+   * Passo explícito do operador: a fila pode ter votos já confirmados aos
+   * eleitores (gateway, produtores)
+   *
+   * @return Número de znodes antigos removidos
+   */
+  public int reiniciar(VotingNamespace namespace) throws KeeperException, InterruptedException {
+    long inicio = System.nanoTime();
+    int removidos = apagar(namespace.fila()) + descartarApuracao(namespace);
+    System.out.printf("Ciclo de vida: eleição %s preparada em %.1f ms (%d znodes antigos removidos)%n", namespace,
+        (System.nanoTime() - inicio) / 1e6, removidos);
+    return removidos;
+  }
+
+  /**
+   * Descarta o que é derivado da contagem (resultados publicados, votos
+   * inválidos e já contados, provas de auditoria, anúncio antecipado, deltas
+   * e checkpoint) e recria a árvore, mantendo a fila. O líder chama antes de
+   * abrir a urna: uma nova votação nunca soma contagens de uma execução anterior
+   *
+   * @return Número de znodes removidos, sem contar os caminhos recriados
+   */
+  public int descartarApuracao(VotingNamespace namespace) throws KeeperException, InterruptedException {
+    int removidos = apagar(namespace.decidido());
+    for (String path : new String[] { namespace.resultado(), namespace.invalidos(), namespace.contados(),
+        namespace.auditoria(), namespace.deltas(), namespace.checkpoint() }) {
+      removidos += Math.max(0, apagar(path) - 1);
+    }
+    preparar(namespace);
+    return removidos;
+  }
+
+  /**
+   * Remove uma subárvore inteira com multis de até {@link #REMOCOES_POR_MULTI}
+   * operações, das folhas para a raiz. Os multis são enviados em sequência
+   * sem esperar as respostas: o servidor aplica as requisições de uma sessão
+   * na ordem em que chegam
+   *
+   * @return Número de znodes removidos (0 se o caminho não existe)
+   */
+  public int apagar(String raiz) throws KeeperException, InterruptedException {
+    int removidos = 0;
+    while (true) {
+      ZooKeeper zk = conexao.getZk();
+      List<String> nos = listar(zk, raiz);
+      if (nos.isEmpty()) {
+        return removidos;
+      }
+      // BFS invertido: filhos sempre antes dos pais
+      Collections.reverse(nos);
+
+      int lotes = (nos.size() + REMOCOES_POR_MULTI - 1) / REMOCOES_POR_MULTI;
+      CountDownLatch pendentes = new CountDownLatch(lotes);
+      AtomicInteger aplicados = new AtomicInteger();
+      AtomicInteger falha = new AtomicInteger(KeeperException.Code.OK.intValue());
+      for (int i = 0; i < nos.size(); i += REMOCOES_POR_MULTI) {
+        List<Op> remocoes = new ArrayList<>();
+        for (String path : nos.subList(i, Math.min(i + REMOCOES_POR_MULTI, nos.size()))) {
+          remocoes.add(Op.delete(path, -1));
+        }
+        zk.multi(remocoes, (rc, path, ctx, resultados) -> {
+          if (rc == KeeperException.Code.OK.intValue()) {
+            aplicados.addAndGet(remocoes.size());
+          } else {
+            falha.compareAndSet(KeeperException.Code.OK.intValue(), rc);
+          }
+          pendentes.countDown();
+        }, null);
+      }
+      pendentes.await();
+      removidos += aplicados.get();
+
+      KeeperException.Code codigo = KeeperException.Code.get(falha.get());
+      try {
+        if (codigo != KeeperException.Code.OK) {
+          throw KeeperException.create(codigo);
+        }
+        return removidos;
+      } catch (KeeperException.NoNodeException | KeeperException.NotEmptyException e) {
+        // A subárvore mudou durante a remoção (nós efêmeros, consumo da fila):
+        // lista de novo e continua de onde está
+      } catch (KeeperException.ConnectionLossException | KeeperException.SessionExpiredException e) {
+        // Repetir é seguro: a nova listagem só contém o que não foi removido
+        if (!conexao.aguardarSessao()) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Lista a subárvore em largura (raiz primeiro), com as leituras de cada
+   * nível enviadas em paralelo
+   */
+  private static List<String> listar(ZooKeeper zk, String raiz) throws KeeperException, InterruptedException {
+    List<String> todos = new ArrayList<>();
+    if (zk.exists(raiz, false) == null) {
+      return todos;
+    }
+    List<String> nivel = List.of(raiz);
+    while (!nivel.isEmpty()) {
+      todos.addAll(nivel);
+      CountDownLatch pendentes = new CountDownLatch(nivel.size());
+      List<List<String>> filhos = new ArrayList<>(Collections.nCopies(nivel.size(), null));
+      AtomicInteger falha = new AtomicInteger(KeeperException.Code.OK.intValue());
+      for (int i = 0; i < nivel.size(); i++) {
+        final int idx = i;
+        zk.getChildren(nivel.get(i), false, (rc, path, ctx, children) -> {
+          if (rc == KeeperException.Code.OK.intValue()) {
+            filhos.set(idx, children);
+          } else if (rc != KeeperException.Code.NONODE.intValue()) {
+            falha.compareAndSet(KeeperException.Code.OK.intValue(), rc);
+          }
+          pendentes.countDown();
+        }, null);
+      }
+      pendentes.await();
+      if (falha.get() != KeeperException.Code.OK.intValue()) {
+        throw KeeperException.create(KeeperException.Code.get(falha.get()));
+      }
+
+      List<String> proximo = new ArrayList<>();
+      for (int i = 0; i < nivel.size(); i++) {
+        if (filhos.get(i) != null) {
+          String pai = nivel.get(i).equals("/") ? "" : nivel.get(i);
+          for (String filho : filhos.get(i)) {
+            proximo.add(pai + "/" + filho);
+          }
+        }
+      }
+      nivel = proximo;
+    }
+    return todos;
+  }
+
+  /**
+   * Remove todo o namespace de uma eleição encerrada
+   */
+  public int encerrar(VotingNamespace namespace) throws KeeperException, InterruptedException {
+    if (namespace.getRaiz().isEmpty()) {
+      int removidos = 0;
+      for (String path : new String[] { namespace.urnaAberta(), namespace.fila(), namespace.resultado(),
+          namespace.invalidos(), namespace.contados(), namespace.auditoria(), namespace.decidido(),
+          namespace.deltas(), namespace.checkpoint(), namespace.barrier(), namespace.lock(), namespace.eleicao(),
+          namespace.coordenador() }) {
+        removidos += apagar(path);
+      }
+      return removidos;
+    }
+    return apagar(namespace.getRaiz());
+  }
+
+  /**
+   * Limpa ou reinicia uma eleição, ou mede o reinício com estado antigo acumulado
+   * Uso: VotingLifecycle limpar [eleicao] | VotingLifecycle reiniciar [eleicao]
+   *      | VotingLifecycle medir [votosAntigos]
+   */
+  public static void main(String[] args) throws Exception {
+    String modo = args.length > 0 ? args[0] : "limpar";
+    VotingConnection conexao = new VotingConnection("localhost:2181").aguardarConexao();
+    VotingLifecycle ciclo = new VotingLifecycle(conexao);
+    try {
+      if (modo.equals("medir")) {
+        int antigos = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        VotingNamespace namespace = new VotingNamespace("ciclo-" + VotingConnection.novoToken());
+        long inicio = System.nanoTime();
+        ciclo.preparar(namespace);
+        System.out.printf("Árvore nova preparada em %.1f ms%n", (System.nanoTime() - inicio) / 1e6);
+
+        // Estado de uma execução anterior: votos não contados e resultados publicados
+        VotingQueue fila = new VotingQueue(conexao, namespace.fila());
+        List<String> lote = Collections.nCopies(500, "A");
+        for (int i = 0; i < antigos; i += lote.size()) {
+          fila.produceLote(lote);
+        }
+        for (int no = 1; no <= 50; no++) {
+          conexao.getZk().create(namespace.resultado() + "/" + no, "A=1".getBytes(), Ids.OPEN_ACL_UNSAFE,
+              CreateMode.PERSISTENT);
+        }
+        ciclo.reiniciar(namespace);
+        ciclo.encerrar(namespace);
+      } else if (modo.equals("reiniciar")) {
+        ciclo.reiniciar(args.length > 1 ? new VotingNamespace(args[1]) : VotingNamespace.padrao());
+      } else {
+        VotingNamespace namespace = args.length > 1 ? new VotingNamespace(args[1]) : VotingNamespace.padrao();
+        System.out.println("Ciclo de vida: " + ciclo.encerrar(namespace) + " znodes removidos da eleição " + namespace);
+      }
+    } finally {
+      conexao.close();
+    }
+  }
+}
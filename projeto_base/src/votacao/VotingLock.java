@@ -1,11 +1,11 @@
 package src.votacao;
 
 import java.io.IOException;
-import java.util.Collections;
 import java.util.List;
 
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
@@ -16,13 +16,18 @@ import org.apache.zookeeper.data.Stat;
 /**
  * Implementação de Lock distribuído usando ZooKeeper
  * Garante acesso exclusivo ao processamento de votos
+ * Se a sessão expira, o nó do lock desaparece: quem aguardava volta para a
+ * fila do lock com a nova sessão, e quem detinha o lock o perde. Escritas
+ * feitas sob o lock devem incluir {@link #verificacao()} no mesmo multi, que
+ * falha se o lock já se perdeu
  */
-public class VotingLock implements Watcher {
+public class VotingLock implements Watcher, VotingConnection.Recuperavel {
 
-  private ZooKeeper zk;
+  private VotingConnection conexao;
   private String root;
   private String lockPath;
-  private String currentPath;
+  private volatile String currentPath;
+  private volatile boolean detido = false;
   private Object mutex = new Object();
 
   /**
@@ -32,16 +37,31 @@ public class VotingLock implements Watcher {
    * @param root    Caminho raiz do lock
    */
   public VotingLock(String address, String root) throws IOException {
+    this(new VotingConnection(address), root);
+  }
+
+  /**
+   * Construtor do Lock sobre uma conexão compartilhada
+   * 
+   * @param conexao Conexão com o ZooKeeper
+   * @param root    Caminho raiz do lock
+   */
+  public VotingLock(VotingConnection conexao, String root) {
     this.root = root;
-    this.zk = new ZooKeeper(address, 3000, this);
+    this.conexao = conexao;
     this.lockPath = root + "/lock-";
+    conexao.adicionarRecuperavel(this);
 
     try {
       // Criar o nó raiz se não existir
+      ZooKeeper zk = conexao.getZk();
       Stat s = zk.exists(root, false);
       if (s == null) {
-        zk.create(root, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        // Container: removido pelo servidor quando fica vazio
+        zk.create(root, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.CONTAINER);
       }
+    } catch (KeeperException.NodeExistsException e) {
+      // Criado por outro nó
     } catch (KeeperException e) {
       System.err.println("Erro ao criar nó raiz do lock: " + e.getMessage());
     } catch (InterruptedException e) {
@@ -55,9 +75,8 @@ public class VotingLock implements Watcher {
    * @return true se conseguiu adquirir o lock
    */
   public boolean acquire() throws KeeperException, InterruptedException {
-    // Criar nó ephemeral sequencial
-    currentPath = zk.create(lockPath, new byte[0], Ids.OPEN_ACL_UNSAFE,
-        CreateMode.EPHEMERAL_SEQUENTIAL);
+    // Criar nó ephemeral sequencial (com token, seguro para repetir)
+    currentPath = conexao.criarProtegido(lockPath, new byte[0], CreateMode.EPHEMERAL_SEQUENTIAL);
 
     return checkLock();
   }
@@ -66,16 +85,23 @@ public class VotingLock implements Watcher {
    * Verifica se este nó tem o lock
    */
   private boolean checkLock() throws KeeperException, InterruptedException {
-    List<String> children = zk.getChildren(root, false);
-    Collections.sort(children);
+    List<String> children = conexao.executar(zk -> zk.getChildren(root, false));
+    VotingConnection.ordenarPorSequencia(children);
 
     // Filtrar apenas nós de lock
     String myNode = currentPath.substring(root.length() + 1);
+    if (!children.contains(myNode)) {
+      // Nó efêmero perdido com a sessão: volta para o fim da fila do lock
+      System.out.println("Lock: Sessão expirou durante a espera, entrando novamente na fila...");
+      currentPath = conexao.criarProtegido(lockPath, new byte[0], CreateMode.EPHEMERAL_SEQUENTIAL);
+      return checkLock();
+    }
 
     for (int i = 0; i < children.size(); i++) {
       if (children.get(i).equals(myNode)) {
         if (i == 0) {
           // Este é o primeiro nó - tem o lock
+          detido = true;
           System.out.println("Lock: Adquirido com sucesso!");
           return true;
         } else {
@@ -96,7 +122,7 @@ public class VotingLock implements Watcher {
     String previousPath = root + "/" + previousNode;
 
     synchronized (mutex) {
-      Stat s = zk.exists(previousPath, this);
+      Stat s = conexao.executar(zk -> zk.exists(previousPath, this));
       if (s != null) {
         System.out.println("Lock: Aguardando liberação...");
         mutex.wait();
@@ -111,10 +137,51 @@ public class VotingLock implements Watcher {
    * Libera o lock
    */
   public void release() throws KeeperException, InterruptedException {
+    detido = false;
     if (currentPath != null) {
-      zk.delete(currentPath, -1);
+      String path = currentPath;
       currentPath = null;
-      System.out.println("Lock: Liberado com sucesso!");
+      try {
+        conexao.executar(zk -> {
+          zk.delete(path, -1);
+          return null;
+        });
+        System.out.println("Lock: Liberado com sucesso!");
+      } catch (KeeperException.NoNodeException e) {
+        // Removido junto com a sessão expirada (ou por uma repetição já aplicada)
+        System.out.println("Lock: Nó já removido (sessão expirada durante o uso)");
+      }
+    }
+  }
+
+  /**
+   * Indica se o lock continua com este nó (false depois que a sessão expira)
+   */
+  public boolean isDetido() {
+    return detido;
+  }
+
+  /**
+   * Verificação do nó do lock para incluir em um multi: faz a transação
+   * falhar com NoNode se o lock se perdeu com a sessão
+   */
+  public Op verificacao() {
+    String path = currentPath;
+    if (path == null) {
+      throw new IllegalStateException("Lock não adquirido");
+    }
+    return Op.check(path, -1);
+  }
+
+  /**
+   * O nó efêmero do lock se perdeu com a sessão expirada: quem detinha o lock
+   * deixa de detê-lo (quem aguardava já é acordado pelo evento de expiração)
+   */
+  @Override
+  public void sessaoRecriada() {
+    if (detido) {
+      detido = false;
+      System.out.println("Lock: Perdido com a sessão expirada");
     }
   }
 
@@ -140,7 +207,8 @@ public class VotingLock implements Watcher {
   @Override
   public void process(WatchedEvent event) {
     synchronized (mutex) {
-      if (event.getType() == Event.EventType.NodeDeleted) {
+      // Expiração também acorda quem aguarda: o nó de espera se perdeu
+      if (event.getType() == Event.EventType.NodeDeleted || event.getState() == Event.KeeperState.Expired) {
         mutex.notifyAll();
       }
     }
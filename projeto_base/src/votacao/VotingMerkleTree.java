@@ -0,0 +1,381 @@
+package src.votacao;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.StringJoiner;
+
+/**
+ * Árvore de Merkle incremental sobre os votos contados por um nó
+ * Segue a construção do RFC 6962 (folhas com prefixo 0x00, nós internos com
+ * 0x01), o que permite provas de inclusão e de consistência com O(log n)
+ * hashes. Guarda apenas as subárvores completas de cada nível, então cada
+ * voto custa em média dois hashes
+ */
+public class VotingMerkleTree {
+
+  private static final HexFormat HEX = HexFormat.of();
+
+  private final MessageDigest sha256;
+
+  // niveis.get(k).get(i) = hash da subárvore completa de 2^k folhas que começa em i * 2^k
+  private final List<List<byte[]>> niveis = new ArrayList<>();
+  private long tamanho = 0;
+
+  public VotingMerkleTree() {
+    try {
+      this.sha256 = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 indisponível", e);
+    }
+    niveis.add(new ArrayList<>());
+  }
+
+  /**
+   * Adiciona um voto contado como nova folha
+   *
+   * @param idVoto    Identificador do voto (nome do znode na fila)
+   * @param candidato Candidato contado
+   */
+  public synchronized void adicionar(String idVoto, String candidato) {
+    byte[] folha = hashFolha(sha256, (idVoto + "|" + candidato).getBytes(StandardCharsets.UTF_8));
+    niveis.get(0).add(folha);
+    tamanho++;
+
+    // Fecha as subárvores completas, como a propagação de "vai um" em binário
+    int k = 0;
+    while (niveis.get(k).size() % 2 == 0) {
+      List<byte[]> nivel = niveis.get(k);
+      byte[] pai = hashNo(sha256, nivel.get(nivel.size() - 2), nivel.get(nivel.size() - 1));
+      if (niveis.size() == k + 1) {
+        niveis.add(new ArrayList<>());
+      }
+      niveis.get(k + 1).add(pai);
+      k++;
+    }
+  }
+
+  /**
+   * Descarta as folhas a partir da posição {@code m} (votos de um lote que não
+   * chegou a ser publicado). Só as subárvores completas que cobrem as folhas
+   * descartadas são removidas
+   */
+  public synchronized void truncar(long m) {
+    if (m < 0 || m > tamanho) {
+      throw new IllegalArgumentException("Tamanho fora da árvore: " + m);
+    }
+    for (int k = 0; k < niveis.size(); k++) {
+      List<byte[]> nivel = niveis.get(k);
+      nivel.subList((int) (m >> k), nivel.size()).clear();
+    }
+    tamanho = m;
+  }
+
+  /** Número de folhas (votos) da árvore */
+  public synchronized long getTamanho() {
+    return tamanho;
+  }
+
+  /** Raiz da árvore atual (hash de zero bytes se vazia) */
+  public synchronized byte[] raiz() {
+    return raiz(tamanho);
+  }
+
+  /** Raiz da árvore formada pelas primeiras {@code m} folhas */
+  public synchronized byte[] raiz(long m) {
+    if (m < 0 || m > tamanho) {
+      throw new IllegalArgumentException("Tamanho fora da árvore: " + m);
+    }
+    if (m == 0) {
+      return sha256.digest();
+    }
+    return subarvore(0, m);
+  }
+
+  /**
+   * Prova de inclusão da folha {@code indice} na árvore de {@code n} folhas
+   * (PATH do RFC 6962)
+   */
+  public synchronized List<byte[]> provaInclusao(long indice, long n) {
+    if (n > tamanho || indice < 0 || indice >= n) {
+      throw new IllegalArgumentException("Índice " + indice + " fora da árvore de " + n + " folhas");
+    }
+    List<byte[]> prova = new ArrayList<>();
+    caminho(indice, 0, n, prova);
+    return prova;
+  }
+
+  /**
+   * Prova de que a árvore de {@code m} folhas é prefixo da de {@code n} folhas
+   * (PROOF do RFC 6962)
+   */
+  public synchronized List<byte[]> provaConsistencia(long m, long n) {
+    if (n > tamanho || m < 0 || m > n) {
+      throw new IllegalArgumentException("Tamanhos inválidos: " + m + " / " + n);
+    }
+    List<byte[]> prova = new ArrayList<>();
+    if (m > 0 && m < n) {
+      subprova(m, 0, n, true, prova);
+    }
+    return prova;
+  }
+
+  /** Resumo publicável "tamanho:raizHex" */
+  public synchronized String resumo() {
+    return tamanho + ":" + HEX.formatHex(raiz());
+  }
+
+  /* ====================== Construção das provas ====================== */
+
+  /** Hash da subárvore de {@code n} folhas que começa em {@code inicio} */
+  private byte[] subarvore(long inicio, long n) {
+    if (Long.bitCount(n) == 1 && inicio % n == 0) {
+      // Subárvore completa e alinhada: já calculada
+      return niveis.get(Long.numberOfTrailingZeros(n)).get((int) (inicio / n));
+    }
+    long k = maiorPotenciaMenorQue(n);
+    return hashNo(sha256, subarvore(inicio, k), subarvore(inicio + k, n - k));
+  }
+
+  private void caminho(long m, long inicio, long n, List<byte[]> prova) {
+    if (n == 1) {
+      return;
+    }
+    long k = maiorPotenciaMenorQue(n);
+    if (m < k) {
+      caminho(m, inicio, k, prova);
+      prova.add(subarvore(inicio + k, n - k));
+    } else {
+      caminho(m - k, inicio + k, n - k, prova);
+      prova.add(subarvore(inicio, k));
+    }
+  }
+
+  private void subprova(long m, long inicio, long n, boolean completa, List<byte[]> prova) {
+    if (m == n) {
+      if (!completa) {
+        prova.add(subarvore(inicio, n));
+      }
+      return;
+    }
+    long k = maiorPotenciaMenorQue(n);
+    if (m <= k) {
+      subprova(m, inicio, k, completa, prova);
+      prova.add(subarvore(inicio + k, n - k));
+    } else {
+      subprova(m - k, inicio + k, n - k, false, prova);
+      prova.add(subarvore(inicio, k));
+    }
+  }
+
+  /* ====================== Verificação (auditores) ====================== */
+
+  /**
+   * Verifica uma prova de inclusão (RFC 9162, seção 2.1.3.2)
+   *
+   * @param idVoto    Identificador do voto
+   * @param candidato Candidato contado
+   * @param indice    Posição da folha
+   * @param n         Tamanho da árvore publicada
+   * @param prova     Hashes da prova
+   * @param raiz      Raiz publicada
+   */
+  public static boolean verificarInclusao(String idVoto, String candidato, long indice, long n, List<byte[]> prova,
+      byte[] raiz) {
+    if (indice < 0 || indice >= n) {
+      return false;
+    }
+    MessageDigest md = novoDigest();
+    byte[] r = hashFolha(md, (idVoto + "|" + candidato).getBytes(StandardCharsets.UTF_8));
+    long fn = indice;
+    long sn = n - 1;
+
+    for (byte[] p : prova) {
+      if (sn == 0) {
+        return false;
+      }
+      if ((fn & 1) == 1 || fn == sn) {
+        r = hashNo(md, p, r);
+        while ((fn & 1) == 0 && fn != 0) {
+          fn >>= 1;
+          sn >>= 1;
+        }
+      } else {
+        r = hashNo(md, r, p);
+      }
+      fn >>= 1;
+      sn >>= 1;
+    }
+    return sn == 0 && Arrays.equals(r, raiz);
+  }
+
+  /**
+   * Verifica uma prova de consistência (RFC 9162, seção 2.1.4.2)
+   *
+   * @param m       Tamanho da árvore antiga
+   * @param raizM   Raiz da árvore antiga
+   * @param n       Tamanho da árvore nova
+   * @param raizN   Raiz da árvore nova
+   * @param prova   Hashes da prova
+   */
+  public static boolean verificarConsistencia(long m, byte[] raizM, long n, byte[] raizN, List<byte[]> prova) {
+    if (m < 0 || m > n) {
+      return false;
+    }
+    if (m == n) {
+      return prova.isEmpty() && Arrays.equals(raizM, raizN);
+    }
+    if (m == 0) {
+      return prova.isEmpty();
+    }
+    if (prova.isEmpty()) {
+      return false;
+    }
+
+    List<byte[]> caminho = new ArrayList<>(prova);
+    if (Long.bitCount(m) == 1) {
+      caminho.add(0, raizM);
+    }
+
+    MessageDigest md = novoDigest();
+    long fn = m - 1;
+    long sn = n - 1;
+    while ((fn & 1) == 1) {
+      fn >>= 1;
+      sn >>= 1;
+    }
+
+    byte[] fr = caminho.get(0);
+    byte[] sr = caminho.get(0);
+    for (byte[] c : caminho.subList(1, caminho.size())) {
+      if (sn == 0) {
+        return false;
+      }
+      if ((fn & 1) == 1 || fn == sn) {
+        fr = hashNo(md, c, fr);
+        sr = hashNo(md, c, sr);
+        while ((fn & 1) == 0 && fn != 0) {
+          fn >>= 1;
+          sn >>= 1;
+        }
+      } else {
+        sr = hashNo(md, sr, c);
+      }
+      fn >>= 1;
+      sn >>= 1;
+    }
+    return sn == 0 && Arrays.equals(fr, raizM) && Arrays.equals(sr, raizN);
+  }
+
+  /**
+   * Folhas sorteadas para auditoria a partir da própria raiz publicada
+   * (Fiat-Shamir): quem publica a raiz não escolhe quais votos revela
+   *
+   * @param raiz Raiz publicada
+   * @param n    Tamanho da árvore publicada
+   * @param k    Número de folhas sorteadas (com repetição)
+   */
+  public static long[] amostra(byte[] raiz, long n, int k) {
+    long[] indices = new long[n == 0 ? 0 : k];
+    MessageDigest md = novoDigest();
+    for (int j = 0; j < indices.length; j++) {
+      md.update(raiz);
+      byte[] h = md.digest(new byte[] { (byte) (j >>> 24), (byte) (j >>> 16), (byte) (j >>> 8), (byte) j });
+      long x = 0;
+      for (int b = 0; b < 8; b++) {
+        x = (x << 8) | (h[b] & 0xFF);
+      }
+      indices[j] = Math.floorMod(x, n);
+    }
+    return indices;
+  }
+
+  /** Converte a raiz hexadecimal publicada em bytes */
+  public static byte[] raizDeHex(String hex) {
+    return HEX.parseHex(hex);
+  }
+
+  /** Hexadecimal de um hash (raiz ou elemento de prova) */
+  public static String hex(byte[] hash) {
+    return HEX.formatHex(hash);
+  }
+
+  /** Prova publicável: hashes em hexadecimal separados por ',' */
+  public static String provaEmHex(List<byte[]> prova) {
+    StringJoiner sj = new StringJoiner(",");
+    for (byte[] hash : prova) {
+      sj.add(HEX.formatHex(hash));
+    }
+    return sj.toString();
+  }
+
+  /** Lê uma prova publicada por {@link #provaEmHex} */
+  public static List<byte[]> provaDeHex(String texto) {
+    List<byte[]> prova = new ArrayList<>();
+    if (!texto.isEmpty()) {
+      for (String hash : texto.split(",")) {
+        prova.add(HEX.parseHex(hash));
+      }
+    }
+    return prova;
+  }
+
+  /* ====================== Utilitários ====================== */
+
+  private static long maiorPotenciaMenorQue(long n) {
+    return Long.highestOneBit(n - 1);
+  }
+
+  private static byte[] hashFolha(MessageDigest md, byte[] dados) {
+    md.update((byte) 0x00);
+    return md.digest(dados);
+  }
+
+  private static byte[] hashNo(MessageDigest md, byte[] esquerda, byte[] direita) {
+    md.update((byte) 0x01);
+    md.update(esquerda);
+    return md.digest(direita);
+  }
+
+  private static MessageDigest novoDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 indisponível", e);
+    }
+  }
+
+  /**
+   * Mede o custo por voto e o tamanho das provas
+   * Uso: VotingMerkleTree [votos]
+   */
+  public static void main(String[] args) {
+    int totalVotos = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    VotingMerkleTree arvore = new VotingMerkleTree();
+
+    long inicio = System.nanoTime();
+    for (int i = 0; i < totalVotos; i++) {
+      arvore.adicionar(String.format("voto-%010d", i), i % 3 == 0 ? "A" : "B");
+    }
+    double nsPorVoto = (System.nanoTime() - inicio) / (double) totalVotos;
+    System.out.printf("Árvore: %d votos, %.0f ns/voto, raiz %s%n", totalVotos, nsPorVoto, arvore.resumo());
+
+    Random random = new Random(42);
+    int indice = random.nextInt(totalVotos);
+    List<byte[]> inclusao = arvore.provaInclusao(indice, totalVotos);
+    boolean incluido = verificarInclusao(String.format("voto-%010d", indice), indice % 3 == 0 ? "A" : "B", indice,
+        totalVotos, inclusao, arvore.raiz());
+    System.out.println("Inclusão do voto " + indice + ": " + incluido + " (" + inclusao.size() + " hashes)");
+
+    int m = random.nextInt(totalVotos) + 1;
+    List<byte[]> consistencia = arvore.provaConsistencia(m, totalVotos);
+    boolean consistente = verificarConsistencia(m, arvore.raiz(m), totalVotos, arvore.raiz(), consistencia);
+    System.out.println("Consistência " + m + " -> " + totalVotos + ": " + consistente + " (" + consistencia.size()
+        + " hashes)");
+  }
+}
@@ -0,0 +1,139 @@
+package src.votacao;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+
+/**
+ * Namespace de uma eleição no ZooKeeper
+ * Cada eleição tem seus próprios caminhos de barreira, fila, lock, eleição de
+ * coordenador e resultados, permitindo várias eleições no mesmo ensemble
+ */
+public class VotingNamespace {
+
+  /** Raiz onde ficam as eleições com namespace próprio */
+  public static final String ELEICOES_PATH = "/eleicoes";
+
+  private static final VotingNamespace PADRAO = new VotingNamespace(null, "");
+
+  private final String id;
+  private final String raiz;
+
+  private VotingNamespace(String id, String raiz) {
+    this.id = id;
+    this.raiz = raiz;
+  }
+
+  /**
+   * Namespace de uma eleição identificada por {@code id}, em /eleicoes/{id}
+   *
+   * @param id Identificador da eleição (sem '/')
+   */
+  public VotingNamespace(String id) {
+    this(id, ELEICOES_PATH + "/" + validarId(id));
+  }
+
+  /**
+   * Namespace original, com os caminhos na raiz do ZooKeeper
+   */
+  public static VotingNamespace padrao() {
+    return PADRAO;
+  }
+
+  private static String validarId(String id) {
+    if (id == null || id.isEmpty() || id.contains("/")) {
+      throw new IllegalArgumentException("ID de eleição inválido: " + id);
+    }
+    return id;
+  }
+
+  /** Identificador da eleição, ou null no namespace padrão */
+  public String getId() {
+    return id;
+  }
+
+  /** Caminho raiz do namespace ("" no namespace padrão) */
+  public String getRaiz() {
+    return raiz;
+  }
+
+  public String barrier() {
+    return raiz + "/urna_fechada";
+  }
+
+  /** Existe enquanto a urna está aberta: os produtores verificam no multi que grava o voto */
+  public String urnaAberta() {
+    return raiz + "/urna_aberta";
+  }
+
+  public String fila() {
+    return raiz + "/fila_votos";
+  }
+
+  public String lock() {
+    return raiz + "/lock_processamento";
+  }
+
+  public String eleicao() {
+    return raiz + "/eleicao_coordenador";
+  }
+
+  public String coordenador() {
+    return raiz + "/coordenador_votacao";
+  }
+
+  public String resultado() {
+    return raiz + "/resultado_votacao";
+  }
+
+  public String invalidos() {
+    return raiz + "/votos_invalidos";
+  }
+
+  public String contados() {
+    return raiz + "/votos_contados";
+  }
+
+  public String auditoria() {
+    return raiz + "/auditoria_votacao";
+  }
+
+  public String decidido() {
+    return raiz + "/resultado_decidido";
+  }
+
+  public String checkpoint() {
+    return raiz + "/checkpoint_votacao";
+  }
+
+  public String deltas() {
+    return raiz + "/deltas_votacao";
+  }
+
+  /**
+   * Garante que a raiz do namespace (e seus ancestrais) exista
+   */
+  public void garantirRaiz(ZooKeeper zk) throws KeeperException, InterruptedException {
+    if (raiz.isEmpty()) {
+      return;
+    }
+    int idx = 0;
+    while (idx >= 0) {
+      idx = raiz.indexOf('/', idx + 1);
+      String path = idx < 0 ? raiz : raiz.substring(0, idx);
+      try {
+        if (zk.exists(path, false) == null) {
+          zk.create(path, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        }
+      } catch (KeeperException.NodeExistsException e) {
+        // Criado por outro nó
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return id == null ? "(padrão)" : id;
+  }
+}
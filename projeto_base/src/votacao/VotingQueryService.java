@@ -0,0 +1,413 @@
+package src.votacao;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.WatcherType;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serviço de consulta de resultados servido a partir de um snapshot em memória
+ * O snapshot é mantido por watches persistentes do ZooKeeper, então as
+ * leituras (placar, vencedor, líder e progresso) não geram carga no ZooKeeper
+ */
+public class VotingQueryService implements Watcher, VotingConnection.Recuperavel {
+
+  /** Intervalo mínimo entre leituras do tamanho da fila */
+  private static final long INTERVALO_FILA_MS = 200;
+
+  private VotingConnection conexao;
+  private String resultadoPath;
+  private String leaderPath;
+  private String queuePath;
+  private boolean conexaoPropria = false;
+
+  // Estado bruto, acessado apenas pela thread de atualização
+  private final Map<String, Map<String, Integer>> parciais = new HashMap<>();
+  private int liderAtual = -1;
+  private int pendentes = 0;
+
+  private final ScheduledExecutorService atualizador = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "consulta-votacao");
+    t.setDaemon(true);
+    return t;
+  });
+  private final AtomicBoolean filaAgendada = new AtomicBoolean(false);
+
+  private volatile Snapshot snapshot = new Snapshot(0, Collections.emptyMap(), -1, 0, 0);
+  private HttpServer http;
+  private ExecutorService httpExecutor;
+
+  /**
+   * Construtor do serviço de consulta
+   *
+   * @param address       Endereço do ZooKeeper
+   * @param resultadoPath Caminho com as contagens locais de cada nó
+   * @param leaderPath    Caminho do nó líder
+   * @param queuePath     Caminho da fila de votos
+   */
+  public VotingQueryService(String address, String resultadoPath, String leaderPath, String queuePath)
+      throws IOException {
+    this(new VotingConnection(address), resultadoPath, leaderPath, queuePath);
+    this.conexaoPropria = true;
+  }
+
+  /**
+   * Construtor do serviço de consulta sobre uma conexão compartilhada
+   *
+   * @param conexao       Conexão com o ZooKeeper
+   * @param resultadoPath Caminho com as contagens locais de cada nó
+   * @param leaderPath    Caminho do nó líder
+   * @param queuePath     Caminho da fila de votos
+   */
+  public VotingQueryService(VotingConnection conexao, String resultadoPath, String leaderPath, String queuePath) {
+    this.resultadoPath = resultadoPath;
+    this.leaderPath = leaderPath;
+    this.queuePath = queuePath;
+    this.conexao = conexao;
+  }
+
+  /**
+   * Registra os watches e carrega o estado inicial
+   * Os watches são registrados antes da leitura para não perder alterações
+   */
+  public void iniciar() throws KeeperException, InterruptedException {
+    conexao.adicionarRecuperavel(this);
+    registrar();
+    System.out.println("Consulta: serviço de resultados iniciado");
+  }
+
+  /**
+   * Watches persistentes não sobrevivem à expiração da sessão: registra de
+   * novo e recarrega o estado, que pode ter mudado enquanto estava sem sessão
+   */
+  @Override
+  public void sessaoRecriada() throws KeeperException, InterruptedException {
+    atualizador.execute(parciais::clear);
+    registrar();
+    System.out.println("Consulta: watches registrados novamente após expiração da sessão");
+  }
+
+  private void registrar() throws KeeperException, InterruptedException {
+    ZooKeeper zk = conexao.getZk();
+    zk.addWatch(resultadoPath, this, AddWatchMode.PERSISTENT_RECURSIVE);
+    zk.addWatch(leaderPath, this, AddWatchMode.PERSISTENT);
+    zk.addWatch(queuePath, this, AddWatchMode.PERSISTENT);
+
+    atualizador.execute(() -> {
+      try {
+        for (String filho : zk.getChildren(resultadoPath, false)) {
+          lerParcial(filho);
+        }
+        lerLider();
+        lerFila();
+        publicar();
+      } catch (KeeperException e) {
+        System.err.println("Consulta: erro ao carregar estado inicial: " + e.getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+  }
+
+  /**
+   * Snapshot atual - leitura sem acesso ao ZooKeeper
+   */
+  public Snapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Expõe o snapshot via HTTP em GET /resultado, com suporte a ETag
+   *
+   * @param porta Porta TCP do servidor
+   */
+  public void iniciarHttp(int porta) throws IOException {
+    http = HttpServer.create(new InetSocketAddress(porta), 0);
+    http.createContext("/resultado", this::responder);
+    httpExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    http.setExecutor(httpExecutor);
+    http.start();
+    System.out.println("Consulta: HTTP disponível em http://localhost:" + porta + "/resultado");
+  }
+
+  /**
+   * Encerra o serviço
+   */
+  public void close() throws InterruptedException {
+    if (http != null) {
+      http.stop(0);
+      httpExecutor.shutdown();
+    }
+    atualizador.shutdownNow();
+    conexao.removerRecuperavel(this);
+    if (conexaoPropria) {
+      conexao.close();
+      return;
+    }
+    ZooKeeper zk = conexao.getZk();
+    // Em conexão compartilhada remove apenas os watches deste serviço
+    for (String path : new String[] { resultadoPath, leaderPath, queuePath }) {
+      try {
+        zk.removeWatches(path, this, WatcherType.Any, true);
+      } catch (KeeperException e) {
+        // Watch já removido
+      }
+    }
+  }
+
+  private void responder(HttpExchange troca) throws IOException {
+    Snapshot s = snapshot;
+    troca.getResponseHeaders().set("ETag", s.getEtag());
+    troca.getResponseHeaders().set("Cache-Control", "no-cache");
+
+    String ifNoneMatch = troca.getRequestHeaders().getFirst("If-None-Match");
+    if (s.getEtag().equals(ifNoneMatch)) {
+      troca.sendResponseHeaders(304, -1);
+      troca.close();
+      return;
+    }
+
+    byte[] corpo = s.toJson().getBytes(StandardCharsets.UTF_8);
+    troca.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    troca.sendResponseHeaders(200, corpo.length);
+    try (OutputStream out = troca.getResponseBody()) {
+      out.write(corpo);
+    }
+  }
+
+  @Override
+  public void process(WatchedEvent event) {
+    String path = event.getPath();
+    if (path == null) {
+      return; // Evento de sessão
+    }
+
+    if (path.equals(queuePath)) {
+      // A fila muda a cada voto: agrupa as recontagens
+      if (filaAgendada.compareAndSet(false, true)) {
+        atualizador.schedule(() -> {
+          filaAgendada.set(false);
+          atualizar(this::lerFila);
+        }, INTERVALO_FILA_MS, TimeUnit.MILLISECONDS);
+      }
+    } else if (path.equals(leaderPath)) {
+      atualizador.execute(() -> atualizar(this::lerLider));
+    } else if (path.startsWith(resultadoPath + "/")) {
+      String filho = path.substring(resultadoPath.length() + 1);
+      if (event.getType() == Event.EventType.NodeDeleted) {
+        atualizador.execute(() -> atualizar(() -> parciais.remove(filho)));
+      } else {
+        atualizador.execute(() -> atualizar(() -> lerParcial(filho)));
+      }
+    }
+  }
+
+  /* ====================== Atualização do snapshot ====================== */
+
+  private interface Leitura {
+    void executar() throws KeeperException, InterruptedException;
+  }
+
+  private void atualizar(Leitura leitura) {
+    try {
+      leitura.executar();
+      publicar();
+    } catch (KeeperException e) {
+      System.err.println("Consulta: erro ao atualizar snapshot: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void lerParcial(String filho) throws KeeperException, InterruptedException {
+    try {
+      byte[] data = conexao.getZk().getData(resultadoPath + "/" + filho, false, null);
+      parciais.put(filho, SistemaVotacao.deserializeContagem(data));
+    } catch (KeeperException.NoNodeException e) {
+      parciais.remove(filho);
+    }
+  }
+
+  private void lerLider() throws KeeperException, InterruptedException {
+    try {
+      byte[] data = conexao.getZk().getData(leaderPath, false, null);
+      liderAtual = Integer.parseInt(new String(data));
+    } catch (KeeperException.NoNodeException | NumberFormatException e) {
+      liderAtual = -1;
+    }
+  }
+
+  /**
+   * Tamanho da fila pelo Stat do znode, sem listar os filhos: O(1) por
+   * leitura. Inclui recibos e resultados de consumo, então é um limite
+   * superior dos votos pendentes
+   */
+  private void lerFila() throws KeeperException, InterruptedException {
+    Stat stat = conexao.getZk().exists(queuePath, false);
+    pendentes = stat == null ? 0 : stat.getNumChildren();
+  }
+
+  /** Recalcula o snapshot e troca a referência se algo mudou */
+  private void publicar() {
+    Map<String, Integer> agregado = new TreeMap<>();
+    for (Map<String, Integer> parcial : parciais.values()) {
+      SistemaVotacao.somar(agregado, parcial);
+    }
+
+    Snapshot atual = snapshot;
+    if (atual.contagem.equals(agregado) && atual.lider == liderAtual
+        && atual.pendentes == pendentes && atual.nos == parciais.size()) {
+      return;
+    }
+    snapshot = new Snapshot(atual.versao + 1, Collections.unmodifiableMap(agregado), liderAtual, pendentes,
+        parciais.size());
+  }
+
+  /**
+   * Visão imutável do resultado em um instante
+   */
+  public static final class Snapshot {
+    private final long versao;
+    private final Map<String, Integer> contagem;
+    private final int lider;
+    private final int pendentes;
+    private final int nos;
+    private final int processados;
+    private final String vencedor;
+    private final String json;
+    private final String etag;
+
+    Snapshot(long versao, Map<String, Integer> contagem, int lider, int pendentes, int nos) {
+      this.versao = versao;
+      this.contagem = contagem;
+      this.lider = lider;
+      this.pendentes = pendentes;
+      this.nos = nos;
+
+      int total = 0;
+      int max = 0;
+      String melhor = null;
+      for (Map.Entry<String, Integer> e : contagem.entrySet()) {
+        total += e.getValue();
+        if (e.getValue() > max) {
+          max = e.getValue();
+          melhor = e.getKey();
+        }
+      }
+      this.processados = total;
+      this.vencedor = melhor;
+      String conteudo = montarConteudo();
+      this.json = "{\"versao\":" + versao + "," + conteudo.substring(1);
+      this.etag = calcularEtag(conteudo);
+    }
+
+    public long getVersao() {
+      return versao;
+    }
+
+    /**
+     * Hash do conteúdo sem a versão: a versão recomeça em cada processo, então
+     * nós diferentes (ou um nó reiniciado) dariam a mesma versão a conteúdos
+     * diferentes, e o mesmo placar teria ETags diferentes se ela entrasse
+     */
+    public String getEtag() {
+      return etag;
+    }
+
+    public Map<String, Integer> getContagem() {
+      return contagem;
+    }
+
+    /** Candidato à frente ou null se não há votos */
+    public String getVencedor() {
+      return vencedor;
+    }
+
+    /** ID do coordenador ou -1 se não há líder */
+    public int getLider() {
+      return lider;
+    }
+
+    public int getProcessados() {
+      return processados;
+    }
+
+    /** Filhos da fila: limite superior dos votos pendentes (inclui recibos) */
+    public int getPendentes() {
+      return pendentes;
+    }
+
+    /** Fração de votos já contados, entre 0 e 1 (limite inferior, ver {@link #getPendentes()}) */
+    public double getProgresso() {
+      int total = processados + pendentes;
+      return total == 0 ? 0.0 : (double) processados / total;
+    }
+
+    public String toJson() {
+      return json;
+    }
+
+    private static String calcularEtag(String json) {
+      try {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(json.getBytes(StandardCharsets.UTF_8));
+        return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(hash, 12)) + "\"";
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("SHA-256 indisponível", e);
+      }
+    }
+
+    /** JSON sem a versão, base do ETag */
+    private String montarConteudo() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("{\"lider\":").append(lider);
+      sb.append(",\"vencedor\":").append(vencedor == null ? "null" : "\"" + escapar(vencedor) + "\"");
+      sb.append(",\"processados\":").append(processados);
+      sb.append(",\"pendentes\":").append(pendentes);
+      sb.append(",\"nos\":").append(nos);
+      sb.append(",\"contagem\":{");
+      boolean primeiro = true;
+      for (Map.Entry<String, Integer> e : contagem.entrySet()) {
+        if (!primeiro)
+          sb.append(',');
+        sb.append('"').append(escapar(e.getKey())).append("\":").append(e.getValue());
+        primeiro = false;
+      }
+      sb.append("}}");
+      return sb.toString();
+    }
+
+    private static String escapar(String s) {
+      return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    @Override
+    public String toString() {
+      return "v" + versao + " lider=" + lider + " vencedor=" + vencedor + " processados=" + processados
+          + " pendentes=" + pendentes + " contagem=" + contagem;
+    }
+  }
+}
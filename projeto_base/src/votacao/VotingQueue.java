@@ -1,10 +1,15 @@
 package src.votacao;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
+import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
@@ -14,11 +19,24 @@ import org.apache.zookeeper.data.Stat;
 /**
  * Implementação de Queue distribuída usando ZooKeeper
  * Gerencia uma fila de votos sincronizada entre os nós
+ * Produção e consumo são seguros para repetir após ConnectionLoss: os votos
+ * levam um token no nome ("voto-token-sequência") e cada consumo grava um
+ * recibo na mesma transação das remoções, o que desfaz a ambiguidade.
+ * Com uma urna configurada ({@link #setUrna}), toda produção é um multi que
+ * começa com Op.check do znode da urna aberta: depois que a urna fecha,
+ * nenhum voto entra na fila
  */
 public class VotingQueue implements Watcher {
 
-  private ZooKeeper zk;
+  private static final String PREFIXO_VOTO = "voto-";
+  private static final String PREFIXO_RECIBO = "recibo-";
+
+  /** Vida dos recibos e notificações (TTL): bem acima do prazo de recuperação da sessão */
+  private static final long TTL_TRANSITORIO_MS = 10 * 60 * 1000;
+
+  private VotingConnection conexao;
   private String root;
+  private volatile String urna; // Existe enquanto a urna está aberta (null: sem cerca)
   private Object mutex = new Object();
 
   /**
@@ -28,11 +46,22 @@ public class VotingQueue implements Watcher {
    * @param root    Caminho raiz da fila
    */
   public VotingQueue(String address, String root) throws IOException {
+    this(new VotingConnection(address), root);
+  }
+
+  /**
+   * Construtor da Queue sobre uma conexão compartilhada
+   * 
+   * @param conexao Conexão com o ZooKeeper
+   * @param root    Caminho raiz da fila
+   */
+  public VotingQueue(VotingConnection conexao, String root) {
     this.root = root;
-    this.zk = new ZooKeeper(address, 3000, this);
+    this.conexao = conexao;
 
     try {
       // Criar o nó raiz se não existir
+      ZooKeeper zk = conexao.getZk();
       Stat s = zk.exists(root, false);
       if (s == null) {
         zk.create(root, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
@@ -44,6 +73,33 @@ public class VotingQueue implements Watcher {
     }
   }
 
+  /**
+   * Passa a aceitar votos só enquanto {@code urnaAberta} existir
+   *
+   * @param urnaAberta Znode criado ao abrir e removido ao fechar a urna
+   */
+  public void setUrna(String urnaAberta) {
+    this.urna = urnaAberta;
+  }
+
+  /** Znode da urna aberta (null se a fila não tem cerca) */
+  public String getUrna() {
+    return urna;
+  }
+
+  /**
+   * Se a urna está aberta (sempre, sem cerca). {@code aoMudar} é chamado na
+   * thread de eventos quando o znode da urna for criado ou removido; o watch
+   * se perde se a sessão expirar, mas a cerca do multi continua valendo
+   */
+  public boolean urnaAberta(Runnable aoMudar) throws KeeperException, InterruptedException {
+    String atual = urna;
+    if (atual == null) {
+      return true;
+    }
+    return conexao.executar(zk -> zk.exists(atual, evento -> aoMudar.run())) != null;
+  }
+
   /**
    * Adiciona um voto à fila (Producer)
    * 
@@ -51,8 +107,14 @@ public class VotingQueue implements Watcher {
    */
   public boolean produce(String voto) throws KeeperException, InterruptedException {
     try {
-      String path = zk.create(root + "/voto-", voto.getBytes(),
-          Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_SEQUENTIAL);
+      String path;
+      if (urna == null) {
+        path = conexao.criarProtegido(root + "/" + PREFIXO_VOTO, voto.getBytes(), CreateMode.PERSISTENT_SEQUENTIAL);
+      } else {
+        // Com a cerca da urna, o voto entra por um multi (verificação + criação)
+        List<OpResult> criado = gravarLote(VotingConnection.novoToken(), List.of(voto), false);
+        path = ((OpResult.CreateResult) criado.get(0)).getPath();
+      }
       System.out.println("Queue: Voto '" + voto + "' adicionado em " + path);
       return true;
     } catch (KeeperException e) {
@@ -61,6 +123,137 @@ public class VotingQueue implements Watcher {
     }
   }
 
+  /**
+   * Adiciona um lote de votos à fila em uma única transação (multi)
+   * Ou todos os votos entram na fila, ou nenhum
+   * 
+   * @param votos Votos a serem adicionados
+   * @return Nomes dos znodes criados, na ordem dos votos
+   * @throws KeeperException.NoNodeException com o caminho da urna, se ela
+   *                                         já foi fechada
+   */
+  public List<String> produceLote(List<String> votos) throws KeeperException, InterruptedException {
+    String token = VotingConnection.novoToken();
+    List<String> nomes = new ArrayList<>();
+    for (OpResult resultado : gravarLote(token, votos, false)) {
+      String path = ((OpResult.CreateResult) resultado).getPath();
+      nomes.add(path.substring(root.length() + 1));
+    }
+    System.out.println("Queue: " + votos.size() + " votos adicionados em " + root);
+    return nomes;
+  }
+
+  /**
+   * Versão assíncrona de {@link #produceLote(List)}: o callback recebe os
+   * resultados quando a transação for confirmada pelo ZooKeeper. Após
+   * ConnectionLoss o lote é confirmado (ou reenviado) pelo token em uma thread
+   * auxiliar, então o callback nunca recebe um resultado ambíguo. Com a urna
+   * fechada, o callback recebe NONODE com o caminho da urna
+   */
+  public void produceLote(List<String> votos, AsyncCallback.MultiCallback callback, Object ctx) {
+    String token = VotingConnection.novoToken();
+    conexao.getZk().multi(criacoes(token, votos), (rc, path, c, resultados) -> {
+      if (rc == KeeperException.Code.OK.intValue()) {
+        callback.processResult(rc, path, ctx, semCerca(resultados));
+        return;
+      }
+      if (rc != KeeperException.Code.CONNECTIONLOSS.intValue()
+          && rc != KeeperException.Code.SESSIONEXPIRED.intValue()) {
+        callback.processResult(rc, cercaFalhou(resultados) ? urna : path, ctx, resultados);
+        return;
+      }
+      Thread t = new Thread(() -> {
+        try {
+          callback.processResult(KeeperException.Code.OK.intValue(), path, ctx, gravarLote(token, votos, true));
+        } catch (KeeperException e) {
+          callback.processResult(e.code().intValue(), e.getPath(), ctx, null);
+        } catch (InterruptedException e) {
+          callback.processResult(KeeperException.Code.OPERATIONTIMEOUT.intValue(), path, ctx, null);
+        }
+      }, "fila-confirmacao");
+      t.setDaemon(true);
+      t.start();
+    }, ctx);
+  }
+
+  /**
+   * Grava o lote com multi, repetindo após perda de conexão. Como o multi é
+   * atômico, achar um voto com o token significa que o lote inteiro entrou
+   *
+   * @param ambiguo Se uma tentativa anterior pode ter sido aplicada
+   */
+  private List<OpResult> gravarLote(String token, List<String> votos, boolean ambiguo)
+      throws KeeperException, InterruptedException {
+    String marcador = PREFIXO_VOTO + token + "-";
+    boolean[] tentativaAnterior = { ambiguo };
+    return conexao.executar(zk -> {
+      if (tentativaAnterior[0]) {
+        List<String> gravados = new ArrayList<>();
+        for (String filho : filhos()) {
+          if (filho.startsWith(marcador)) {
+            gravados.add(filho);
+          }
+        }
+        if (!gravados.isEmpty()) {
+          VotingConnection.ordenarPorSequencia(gravados);
+          List<OpResult> resultados = new ArrayList<>();
+          for (String nome : gravados) {
+            resultados.add(new OpResult.CreateResult(root + "/" + nome));
+          }
+          return resultados;
+        }
+      }
+      tentativaAnterior[0] = true;
+      try {
+        return enviar(zk, token, votos);
+      } catch (KeeperException.NoNodeException e) {
+        if (e.getPath() != null && e.getPath().equals(urna)) {
+          throw e;
+        }
+        // Fila removida (eleição reiniciada): recria como persistente e repete
+        criarRaiz();
+        return enviar(zk, token, votos);
+      }
+    });
+  }
+
+  /** Envia o multi do lote; a falha da cerca vira NoNode com o caminho da urna */
+  private List<OpResult> enviar(ZooKeeper zk, String token, List<String> votos)
+      throws KeeperException, InterruptedException {
+    try {
+      return semCerca(zk.multi(criacoes(token, votos)));
+    } catch (KeeperException.NoNodeException e) {
+      if (cercaFalhou(e.getResults())) {
+        throw (KeeperException.NoNodeException) KeeperException.create(KeeperException.Code.NONODE, urna);
+      }
+      throw e;
+    }
+  }
+
+  /** Se o multi falhou na verificação da urna (primeira operação) */
+  private boolean cercaFalhou(List<OpResult> resultados) {
+    return urna != null && resultados != null && !resultados.isEmpty()
+        && resultados.get(0) instanceof OpResult.ErrorResult
+        && ((OpResult.ErrorResult) resultados.get(0)).getErr() == KeeperException.Code.NONODE.intValue();
+  }
+
+  /** Resultados das criações, sem o da verificação da urna */
+  private List<OpResult> semCerca(List<OpResult> resultados) {
+    return urna == null ? resultados : resultados.subList(1, resultados.size());
+  }
+
+  private List<Op> criacoes(String token, List<String> votos) {
+    List<Op> ops = new ArrayList<>(votos.size() + 1);
+    if (urna != null) {
+      ops.add(Op.check(urna, -1));
+    }
+    String prefixo = root + "/" + PREFIXO_VOTO + token + "-";
+    for (String voto : votos) {
+      ops.add(Op.create(prefixo, voto.getBytes(), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_SEQUENTIAL));
+    }
+    return ops;
+  }
+
   /**
    * Consome um voto da fila (Consumer)
    * 
@@ -69,7 +262,12 @@ public class VotingQueue implements Watcher {
   public String consume() throws KeeperException, InterruptedException {
     while (true) {
       synchronized (mutex) {
-        List<String> list = zk.getChildren(root, true);
+        List<String> list;
+        try {
+          list = conexao.executar(zk -> zk.getChildren(root, this));
+        } catch (KeeperException.NoNodeException e) {
+          return null; // Fila removida: nada a consumir
+        }
 
         if (list.isEmpty()) {
           return null; // Fila vazia
@@ -78,8 +276,8 @@ public class VotingQueue implements Watcher {
         // Encontrar o elemento com menor sequência (FIFO)
         String minNode = null;
         for (String node : list) {
-          if (node.startsWith("voto-")) {
-            if (minNode == null || node.compareTo(minNode) < 0) {
+          if (node.startsWith(PREFIXO_VOTO)) {
+            if (minNode == null || VotingConnection.sequencia(node) < VotingConnection.sequencia(minNode)) {
               minNode = node;
             }
           }
@@ -92,11 +290,13 @@ public class VotingQueue implements Watcher {
         String fullPath = root + "/" + minNode;
         try {
           // Ler dados do voto
-          byte[] data = zk.getData(fullPath, false, null);
+          byte[] data = conexao.executar(zk -> zk.getData(fullPath, false, null));
           String voto = new String(data);
 
-          // Remover o voto da fila
-          zk.delete(fullPath, -1);
+          // Remover o voto da fila (com recibo, seguro para repetir)
+          if (remover(List.of(new Item(minNode, voto))).isEmpty()) {
+            continue;
+          }
 
           System.out.println("Queue: Voto '" + voto + "' consumido de " + fullPath);
           return voto;
@@ -109,16 +309,210 @@ public class VotingQueue implements Watcher {
     }
   }
 
+  /**
+   * Consome até {@code max} votos da fila em uma única passada (Consumer)
+   * As leituras são enviadas em paralelo e as remoções em um único multi
+   * 
+   * @param max Número máximo de votos do lote
+   * @return Votos consumidos em ordem FIFO (vazio se a fila estiver vazia)
+   */
+  public List<Item> consumeLote(int max) throws KeeperException, InterruptedException {
+    synchronized (mutex) {
+      while (true) {
+        List<Item> lote = lerLote(max);
+        if (lote.isEmpty()) {
+          return lote;
+        }
+
+        lote = remover(lote);
+        if (lote.isEmpty()) {
+          continue; // Outro nó levou o lote inteiro: a fila ainda pode ter votos
+        }
+
+        System.out.println("Queue: " + lote.size() + " votos consumidos de " + root);
+        return lote;
+      }
+    }
+  }
+
+  /**
+   * Lê até {@code max} votos do início da fila sem removê-los. Quem conta o
+   * lote o retira depois com {@link #remocoes(List)}, no mesmo multi que
+   * publica a contagem
+   * 
+   * @param max Número máximo de votos do lote
+   * @return Votos em ordem FIFO (vazio se a fila estiver vazia)
+   */
+  public List<Item> lerLote(int max) throws KeeperException, InterruptedException {
+    while (true) {
+      List<String> nomes = new ArrayList<>();
+      for (String node : filhos()) {
+        if (node.startsWith(PREFIXO_VOTO)) {
+          nomes.add(node);
+        }
+      }
+      if (nomes.isEmpty()) {
+        return new ArrayList<>();
+      }
+      VotingConnection.ordenarPorSequencia(nomes);
+      if (nomes.size() > max) {
+        nomes = nomes.subList(0, max);
+      }
+
+      // Leituras assíncronas: um round-trip para o lote inteiro
+      ZooKeeper zk = conexao.getZk();
+      CountDownLatch pendentes = new CountDownLatch(nomes.size());
+      byte[][] dados = new byte[nomes.size()][];
+      int[] falhas = { KeeperException.Code.OK.intValue() };
+      for (int i = 0; i < nomes.size(); i++) {
+        final int idx = i;
+        zk.getData(root + "/" + nomes.get(i), false, (rc, path, ctx, data, stat) -> {
+          if (rc == KeeperException.Code.OK.intValue()) {
+            dados[idx] = data;
+          } else if (rc != KeeperException.Code.NONODE.intValue()) {
+            falhas[0] = rc;
+          }
+          pendentes.countDown();
+        }, null);
+      }
+      pendentes.await();
+      if (falhas[0] != KeeperException.Code.OK.intValue()) {
+        // Conexão perdida durante as leituras: aguarda a sessão e relê
+        if (!conexao.aguardarSessao()) {
+          throw KeeperException.create(KeeperException.Code.get(falhas[0]));
+        }
+        continue;
+      }
+
+      List<Item> lote = new ArrayList<>();
+      for (int i = 0; i < nomes.size(); i++) {
+        if (dados[i] != null) {
+          lote.add(new Item(nomes.get(i), new String(dados[i])));
+        }
+      }
+      if (!lote.isEmpty()) {
+        return lote;
+      }
+      // Outro nó levou os votos listados: a fila ainda pode ter outros
+    }
+  }
+
+  /**
+   * Operações que retiram o lote da fila, para compor um multi com a
+   * publicação da contagem: os votos saem da fila se e somente se a
+   * contagem for gravada
+   */
+  public List<Op> remocoes(List<Item> lote) {
+    List<Op> ops = new ArrayList<>(lote.size());
+    for (Item item : lote) {
+      ops.add(Op.delete(root + "/" + item.getId(), -1));
+    }
+    return ops;
+  }
+
+  /**
+   * Remove os votos da fila em um multi que também cria um recibo único
+   * Após ConnectionLoss, a existência do recibo diz se a remoção foi aplicada
+   * (sem ele não dá para distinguir "removido por mim" de "removido por outro")
+   * 
+   * @return Votos efetivamente removidos por este consumidor
+   */
+  private List<Item> remover(List<Item> lote) throws KeeperException, InterruptedException {
+    while (!lote.isEmpty()) {
+      String recibo = root + "/" + PREFIXO_RECIBO + VotingConnection.novoToken();
+      List<Op> ops = remocoes(lote);
+      // Com TTL, um recibo cuja remoção falhou some sozinho
+      ops.add(conexao.suportaTtl()
+          ? Op.create(recibo, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_WITH_TTL, TTL_TRANSITORIO_MS)
+          : Op.create(recibo, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+
+      try {
+        conexao.getZk().multi(ops);
+      } catch (KeeperException.NoNodeException e) {
+        // Outro nó consumiu parte do lote: fica só com o que ainda está na fila
+        lote = aindaNaFila(lote);
+        continue;
+      } catch (KeeperException.ConnectionLossException | KeeperException.SessionExpiredException e) {
+        if (conexao.executar(zk -> zk.exists(recibo, false)) == null) {
+          continue; // Não aplicado: tenta de novo
+        }
+      }
+
+      // Aplicado: o recibo não é mais necessário
+      conexao.getZk().delete(recibo, -1, (rc, path, ctx) -> {
+      }, null);
+      return lote;
+    }
+    return lote;
+  }
+
+  /**
+   * Votos do lote que ainda estão na fila (os demais foram retirados por outro nó)
+   */
+  public List<Item> aindaNaFila(List<Item> lote) throws KeeperException, InterruptedException {
+    List<String> filhos = filhos();
+    List<Item> restantes = new ArrayList<>();
+    for (Item item : lote) {
+      if (filhos.contains(item.getId())) {
+        restantes.add(item);
+      }
+    }
+    return restantes;
+  }
+
+  /**
+   * Filhos da fila (vazio se ela não existe: a eleição foi reiniciada pelo
+   * operador durante o consumo)
+   */
+  private List<String> filhos() throws KeeperException, InterruptedException {
+    try {
+      return conexao.executar(zk -> zk.getChildren(root, false));
+    } catch (KeeperException.NoNodeException e) {
+      return new ArrayList<>();
+    }
+  }
+
+  /** Recria a raiz da fila como persistente, como em {@link VotingLifecycle#preparar} */
+  private void criarRaiz() throws KeeperException, InterruptedException {
+    try {
+      conexao.executar(zk -> zk.create(root, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+    } catch (KeeperException.NodeExistsException e) {
+      // Recriada por outro nó
+    }
+  }
+
+  /**
+   * Voto consumido da fila, identificado pelo nome do znode
+   */
+  public static final class Item {
+    private final String id;
+    private final String voto;
+
+    public Item(String id, String voto) {
+      this.id = id;
+      this.voto = voto;
+    }
+
+    /** Nome do znode do voto (ex.: voto-k3f9a2-0000000012) */
+    public String getId() {
+      return id;
+    }
+
+    public String getVoto() {
+      return voto;
+    }
+  }
+
   /**
    * Verifica quantos votos estão na fila
    * 
    * @return Número de votos pendentes
    */
   public int size() throws KeeperException, InterruptedException {
-    List<String> list = zk.getChildren(root, false);
+    List<String> list = filhos();
     int count = 0;
     for (String node : list) {
-      if (node.startsWith("voto-")) {
+      if (node.startsWith(PREFIXO_VOTO)) {
         count++;
       }
     }
@@ -129,8 +523,13 @@ public class VotingQueue implements Watcher {
    * Método para notificar resultado final (usado pelo líder)
    */
   public void notifyResult(String message) throws KeeperException, InterruptedException {
-    zk.create(root + "/resultado-", message.getBytes(),
-        Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_SEQUENTIAL);
+    // Notificações expiram por TTL em vez de se acumular na fila
+    if (conexao.suportaTtl()) {
+      conexao.criarProtegido(root + "/resultado-", message.getBytes(), CreateMode.PERSISTENT_SEQUENTIAL_WITH_TTL,
+          TTL_TRANSITORIO_MS);
+    } else {
+      conexao.criarProtegido(root + "/resultado-", message.getBytes(), CreateMode.PERSISTENT_SEQUENTIAL);
+    }
     System.out.println("Queue: Resultado notificado - " + message);
   }
 
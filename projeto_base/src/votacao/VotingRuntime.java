@@ -0,0 +1,180 @@
+package src.votacao;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * Runtime que hospeda várias eleições simultâneas em uma única JVM
+ * As eleições compartilham um pool de conexões com o ZooKeeper e um pool de
+ * threads; cada eleição usa seu próprio namespace (/eleicoes/{id})
+ */
+public class VotingRuntime {
+
+  private final VotingConnection[] conexoes;
+  private final ExecutorService threads;
+  private final int numThreads;
+  private final AtomicInteger proximaConexao = new AtomicInteger();
+  private final AtomicInteger proximoNodeId = new AtomicInteger(1);
+
+  /**
+   * Construtor do runtime
+   *
+   * @param address     Endereço do ZooKeeper
+   * @param numConexoes Número de sessões compartilhadas entre as eleições
+   * @param numThreads  Número de threads para executar os nós
+   */
+  public VotingRuntime(String address, int numConexoes, int numThreads) throws IOException, InterruptedException {
+    this.conexoes = new VotingConnection[numConexoes];
+    for (int i = 0; i < numConexoes; i++) {
+      conexoes[i] = new VotingConnection(address).aguardarConexao();
+    }
+    this.numThreads = numThreads;
+    this.threads = Executors.newFixedThreadPool(numThreads);
+  }
+
+  /**
+   * Agenda uma eleição com {@code nos} nós de contagem
+   * Os nós bloqueiam na barreira, então o pool precisa comportar ao menos os nós
+   * de uma eleição; eleições excedentes aguardam threads livres
+   *
+   * @param namespace Namespace da eleição
+   * @param nos       Número de nós (tamanho da barreira)
+   * @param votos     Votos produzidos pelo líder
+   * @return Execução da eleição
+   */
+  public Eleicao agendar(VotingNamespace namespace, int nos, String[] votos) {
+    if (nos > numThreads) {
+      throw new IllegalArgumentException("Eleição com " + nos + " nós excede o pool de " + numThreads + " threads");
+    }
+
+    Eleicao eleicao = new Eleicao(namespace, votos.length);
+    for (int i = 0; i < nos; i++) {
+      VotingConnection conexao = conexoes[Math.floorMod(proximaConexao.getAndIncrement(), conexoes.length)];
+      SistemaVotacao no = new SistemaVotacao(conexao, namespace, proximoNodeId.getAndIncrement(), nos);
+      no.setVotos(votos);
+      no.setModoDemo(false);
+      no.setConsultaAtiva(false);
+      eleicao.nos.add(no);
+      eleicao.execucoes.add(threads.submit(() -> {
+        no.inicializar();
+        no.executarVotacao();
+        return null;
+      }));
+    }
+    return eleicao;
+  }
+
+  /**
+   * Remove o estado de execuções anteriores de uma eleição
+   */
+  public void limpar(VotingNamespace namespace) throws KeeperException, InterruptedException {
+    new VotingLifecycle(conexoes[0]).encerrar(namespace);
+  }
+
+  /**
+   * Encerra threads e conexões
+   */
+  public void close() throws InterruptedException {
+    threads.shutdownNow();
+    for (VotingConnection conexao : conexoes) {
+      conexao.close();
+    }
+  }
+
+  /**
+   * Execução de uma eleição no runtime
+   */
+  public static final class Eleicao {
+    private final VotingNamespace namespace;
+    private final int totalVotos;
+    private final List<SistemaVotacao> nos = new ArrayList<>();
+    private final List<Future<Void>> execucoes = new ArrayList<>();
+
+    Eleicao(VotingNamespace namespace, int totalVotos) {
+      this.namespace = namespace;
+      this.totalVotos = totalVotos;
+    }
+
+    /** Aguarda todos os nós e retorna o resultado compilado pelo líder */
+    public Map<String, Integer> aguardar() throws Exception {
+      for (Future<Void> execucao : execucoes) {
+        execucao.get();
+      }
+      for (SistemaVotacao no : nos) {
+        if (no.getResultadoFinal() != null) {
+          return no.getResultadoFinal();
+        }
+      }
+      return null;
+    }
+
+    public VotingNamespace getNamespace() {
+      return namespace;
+    }
+
+    public int getTotalVotos() {
+      return totalVotos;
+    }
+  }
+
+  /**
+   * Executa várias eleições simultâneas e mede a vazão agregada
+   * Uso: VotingRuntime [eleicoes] [nosPorEleicao] [votosPorEleicao] [conexoes]
+   */
+  public static void main(String[] args) throws Exception {
+    int numEleicoes = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    int nosPorEleicao = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    int votosPorEleicao = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+    int numConexoes = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+    String[] candidatos = { "A", "B", "C" };
+
+    VotingRuntime runtime = new VotingRuntime("localhost:2181", numConexoes, numEleicoes * nosPorEleicao);
+    try {
+      List<VotingNamespace> namespaces = new ArrayList<>();
+      for (int e = 0; e < numEleicoes; e++) {
+        VotingNamespace ns = new VotingNamespace("eleicao-" + e);
+        runtime.limpar(ns);
+        namespaces.add(ns);
+      }
+
+      long inicio = System.nanoTime();
+      List<Eleicao> eleicoes = new ArrayList<>();
+      for (int e = 0; e < numEleicoes; e++) {
+        String[] votos = new String[votosPorEleicao];
+        for (int v = 0; v < votosPorEleicao; v++) {
+          votos[v] = candidatos[(v * (e + 1)) % candidatos.length];
+        }
+        eleicoes.add(runtime.agendar(namespaces.get(e), nosPorEleicao, votos));
+      }
+
+      int totalVotos = 0;
+      StringBuilder resumo = new StringBuilder();
+      for (Eleicao eleicao : eleicoes) {
+        Map<String, Integer> resultado = eleicao.aguardar();
+        totalVotos += eleicao.getTotalVotos();
+        resumo.append("  ").append(eleicao.getNamespace()).append(": ").append(resultado).append('\n');
+      }
+      double segundos = (System.nanoTime() - inicio) / 1e9;
+
+      System.out.println("\nRUNTIME MULTI-ELEIÇÃO");
+      System.out.println("================================");
+      System.out.print(resumo);
+      System.out.println("--------------------------------");
+      System.out.printf("Eleições: %d | Nós: %d | Conexões: %d%n", numEleicoes, numEleicoes * nosPorEleicao,
+          numConexoes);
+      System.out.printf("Votos: %d em %.2fs | Vazão agregada: %.1f votos/s%n", totalVotos, segundos,
+          totalVotos / segundos);
+      System.out.println("================================");
+    } finally {
+      runtime.close();
+    }
+  }
+}
@@ -0,0 +1,343 @@
+package src.votacao;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+/**
+ * Simulador de eleições com N nós de votação em uma única JVM
+ * Sobe um servidor ZooKeeper embutido e executa N instâncias isoladas de
+ * {@link SistemaVotacao} (cada uma com sua própria sessão) com IDs 1..N; o nó
+ * 1 é sempre o líder. Permite injetar falhas no meio da contagem (derrubar um
+ * nó ou o líder, expirar a sessão do líder) e mede vazão, latência de
+ * conclusão e a exatidão do resultado final
+ */
+public class VotingSimulator {
+
+  private static final String[] CANDIDATOS = { "A", "B", "C", "D" };
+  private static final int SECOES = 20;
+
+  /** Tempo máximo de uma simulação */
+  private static final long TIMEOUT_MS = 300000;
+
+  /** Falha injetada quando metade dos votos já saiu da fila */
+  public enum Falha {
+    NENHUMA, NO, LIDER, SESSAO
+  }
+
+  private final File diretorio;
+  private final ZooKeeperServer servidor;
+  private final ServerCnxnFactory fabrica;
+  private final String address;
+
+  /**
+   * Sobe o servidor ZooKeeper embutido
+   *
+   * @param porta Porta do servidor (0 escolhe uma porta livre)
+   */
+  public VotingSimulator(int porta) throws IOException, InterruptedException {
+    // Tipos estendidos habilitam os nós TTL usados em recibos e notificações
+    System.setProperty("zookeeper.extendedTypesEnabled", "true");
+    this.diretorio = Files.createTempDirectory("votacao-sim").toFile();
+    this.servidor = new ZooKeeperServer(diretorio, diretorio, 2000);
+    // Sem limite de conexões por IP: todos os nós vêm de localhost
+    this.fabrica = ServerCnxnFactory.createFactory(porta, 0);
+    fabrica.startup(servidor);
+    this.address = "localhost:" + fabrica.getLocalPort();
+    System.out.println("Simulador: ZooKeeper embutido em " + address);
+  }
+
+  /**
+   * Executa uma eleição simulada
+   *
+   * @param nos   Número de nós (tamanho da barreira)
+   * @param votos Votos produzidos pelo líder
+   * @param falha Falha injetada no meio da contagem
+   */
+  public Relatorio executar(int nos, int votos, Falha falha) throws Exception {
+    VotingNamespace namespace = new VotingNamespace("sim-" + nos + "-" + falha.name().toLowerCase());
+    String[] cedulas = gerarVotos(votos);
+    Map<String, Integer> esperado = new TreeMap<>();
+    for (String c : cedulas) {
+      esperado.merge(VotingTally.candidatoDoVoto(c), 1, Integer::sum);
+    }
+
+    VotingConnection controle = new VotingConnection(address).aguardarConexao();
+    ZooKeeper zk = controle.getZk();
+    VotingLifecycle ciclo = new VotingLifecycle(controle);
+    ciclo.encerrar(namespace);
+
+    VotingConnection[] conexoes = new VotingConnection[nos];
+    SistemaVotacao[] sistemas = new SistemaVotacao[nos];
+    Thread[] threads = new Thread[nos];
+    long[] fim = new long[nos];
+    boolean[] derrubado = new boolean[nos];
+
+    // Logs dos nós ficam de fora; o relatório vai para a saída original
+    PrintStream saida = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    long inicio = System.nanoTime();
+    long urnaFechada = 0;
+    int alvo = -1;
+    try {
+      for (int i = 0; i < nos; i++) {
+        final int idx = i;
+        conexoes[i] = new VotingConnection(address).aguardarConexao();
+        sistemas[i] = new SistemaVotacao(conexoes[i], namespace, i + 1, nos);
+        sistemas[i].setVotos(cedulas);
+        sistemas[i].setModoDemo(false);
+        sistemas[i].setConsultaAtiva(false);
+        threads[i] = new Thread(() -> {
+          try {
+            sistemas[idx].inicializar();
+            sistemas[idx].executarVotacao();
+          } catch (Exception e) {
+            if (!derrubado[idx]) {
+              System.err.println("Simulador: nó " + (idx + 1) + " falhou: " + e);
+            }
+          }
+          fim[idx] = System.nanoTime();
+        }, "no-" + (i + 1));
+        threads[i].start();
+        if (i == 0) {
+          // Os demais só entram depois da eleição do nó 1: líder determinístico
+          aguardarNo(zk, namespace.coordenador());
+        }
+      }
+
+      urnaFechada = aguardarUrna(zk, namespace, nos);
+
+      if (falha != Falha.NENHUMA) {
+        alvo = falha == Falha.NO ? nos - 1 : 0;
+        if (falha == Falha.NO && nos < 2) {
+          alvo = -1;
+        } else {
+          aguardarMetade(zk, namespace.fila(), votos);
+          if (falha == Falha.SESSAO) {
+            conexoes[alvo].expirarSessao();
+          } else {
+            derrubado[alvo] = true;
+            threads[alvo].interrupt();
+            conexoes[alvo].close();
+          }
+        }
+      }
+
+      long limite = System.currentTimeMillis() + TIMEOUT_MS;
+      for (Thread t : threads) {
+        t.join(Math.max(1, limite - System.currentTimeMillis()));
+      }
+      return relatorio(zk, namespace, nos, votos, falha, alvo, esperado, sistemas, fim, derrubado, inicio, urnaFechada);
+    } finally {
+      // Encerrar as sessões dispara trocas de líder: os logs continuam de fora
+      for (int i = 0; i < nos; i++) {
+        if (conexoes[i] != null && !derrubado[i]) {
+          conexoes[i].close();
+        }
+      }
+      ciclo.encerrar(namespace);
+      controle.close();
+      System.setOut(saida);
+    }
+  }
+
+  private static Relatorio relatorio(ZooKeeper zk, VotingNamespace namespace, int nos, int votos, Falha falha,
+      int alvo, Map<String, Integer> esperado, SistemaVotacao[] sistemas, long[] fim, boolean[] derrubado,
+      long inicio, long urnaFechada) throws KeeperException, InterruptedException {
+    // Resultado compilado por quem terminou como coordenador (o líder ou seu sucessor)
+    Map<String, Integer> compilado = null;
+    int compilador = -1;
+    for (int i = 0; i < nos; i++) {
+      if (!derrubado[i] && sistemas[i].getResultadoFinal() != null
+          && (compilador < 0 || fim[i] > fim[compilador])) {
+        compilado = sistemas[i].getResultadoFinal();
+        compilador = i;
+      }
+    }
+
+    Relatorio relatorio = new Relatorio(nos, votos, falha, alvo + 1);
+    relatorio.esperado = esperado;
+    relatorio.obtido = compilado != null ? new TreeMap<>(compilado) : agregarPublicados(zk, namespace);
+    relatorio.compiladoPor = compilador + 1;
+    relatorio.totalMs = (System.nanoTime() - inicio) / 1e6;
+    relatorio.contagemMs = ((compilador >= 0 ? fim[compilador] : maior(fim)) - urnaFechada) / 1e6;
+    relatorio.latencias = latencias(fim, derrubado, urnaFechada);
+    return relatorio;
+  }
+
+  /** Votos determinísticos (semente fixa) com distribuição desigual */
+  private static String[] gerarVotos(int votos) {
+    Random random = new Random(42);
+    String[] cedulas = new String[votos];
+    for (int i = 0; i < votos; i++) {
+      int r = random.nextInt(10);
+      // Cédulas por seção: a apuração por dimensão também passa pela simulação
+      cedulas[i] = "secao=" + (i % SECOES) + "@" + CANDIDATOS[r < 4 ? 0 : r < 7 ? 1 : r < 9 ? 2 : 3];
+    }
+    return cedulas;
+  }
+
+  private static void aguardarNo(ZooKeeper zk, String path) throws KeeperException, InterruptedException {
+    while (zk.exists(path, false) == null) {
+      Thread.sleep(5);
+    }
+  }
+
+  /** Aguarda todos os nós entrarem na barreira (urna fechada, início da contagem) */
+  private static long aguardarUrna(ZooKeeper zk, VotingNamespace namespace, int nos)
+      throws KeeperException, InterruptedException {
+    while (true) {
+      Stat s = zk.exists(namespace.barrier(), false);
+      if (s != null && s.getNumChildren() >= nos) {
+        return System.nanoTime();
+      }
+      Thread.sleep(5);
+    }
+  }
+
+  private static void aguardarMetade(ZooKeeper zk, String fila, int votos)
+      throws KeeperException, InterruptedException {
+    while (true) {
+      Stat s = zk.exists(fila, false);
+      if (s == null || s.getNumChildren() <= votos / 2) {
+        return;
+      }
+      Thread.sleep(2);
+    }
+  }
+
+  /** Soma as contagens publicadas, quando nenhum nó chegou a compilar */
+  private static Map<String, Integer> agregarPublicados(ZooKeeper zk, VotingNamespace namespace)
+      throws KeeperException, InterruptedException {
+    Map<String, Integer> agregado = new TreeMap<>();
+    for (String filho : zk.getChildren(namespace.resultado(), false)) {
+      SistemaVotacao.somar(agregado,
+          SistemaVotacao.deserializeContagem(zk.getData(namespace.resultado() + "/" + filho, false, null)));
+    }
+    return agregado;
+  }
+
+  private static long[] latencias(long[] fim, boolean[] derrubado, long urnaFechada) {
+    List<Long> valores = new ArrayList<>();
+    for (int i = 0; i < fim.length; i++) {
+      if (!derrubado[i] && fim[i] > 0) {
+        valores.add(fim[i] - urnaFechada);
+      }
+    }
+    valores.sort(Comparator.naturalOrder());
+    return valores.stream().mapToLong(Long::longValue).toArray();
+  }
+
+  private static long maior(long[] valores) {
+    return Arrays.stream(valores).max().orElse(0);
+  }
+
+  /**
+   * Encerra o servidor embutido e apaga seus dados
+   */
+  public void close() throws IOException {
+    fabrica.shutdown();
+    servidor.shutdown();
+    try (Stream<Path> arquivos = Files.walk(diretorio.toPath())) {
+      arquivos.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  /**
+   * Medições de uma simulação
+   */
+  public static final class Relatorio {
+    private final int nos;
+    private final int votos;
+    private final Falha falha;
+    private final int alvo;
+    private Map<String, Integer> esperado;
+    private Map<String, Integer> obtido;
+    private int compiladoPor;
+    private double totalMs;
+    private double contagemMs;
+    private long[] latencias;
+
+    Relatorio(int nos, int votos, Falha falha, int alvo) {
+      this.nos = nos;
+      this.votos = votos;
+      this.falha = falha;
+      this.alvo = alvo;
+    }
+
+    /** Votos contados no resultado final */
+    public int getContados() {
+      return obtido.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /** Se o resultado final é exatamente o esperado */
+    public boolean isCorreto() {
+      return esperado.equals(obtido);
+    }
+
+    /** Vazão de contagem, da urna fechada ao resultado compilado */
+    public double getVazao() {
+      return getContados() / (contagemMs / 1000);
+    }
+
+    private double percentil(double p) {
+      if (latencias.length == 0) {
+        return 0;
+      }
+      return latencias[(int) Math.min(latencias.length - 1, Math.ceil(p * latencias.length) - 1)] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+      String alvoFalha = falha == Falha.NENHUMA ? "-" : falha + (alvo > 0 ? " (nó " + alvo + ")" : " (ignorada)");
+      return String.format("%5d | %7d | %-16s | %9.0f | %8.0f | %8.0f | %8.0f | %7.0f | %s",
+          nos, votos, alvoFalha, getVazao(), contagemMs, percentil(0.5), percentil(0.99), totalMs,
+          isCorreto() ? "OK" : "DIVERGENTE (" + (getContados() - votos) + " votos, " + obtido + ")")
+          + (compiladoPor > 0 ? "" : " [sem compilação]");
+    }
+  }
+
+  /**
+   * Executa simulações com número crescente de nós
+   * Uso: VotingSimulator [nos, ex.: 3,10,50,100,200] [votos] [falha: nenhuma|no|lider|sessao]
+   */
+  public static void main(String[] args) throws Exception {
+    String[] escala = (args.length > 0 ? args[0] : "3,10,50,100,200").split(",");
+    int votos = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+    Falha falha = args.length > 2 ? Falha.valueOf(args[2].toUpperCase()) : Falha.NENHUMA;
+
+    VotingSimulator simulador = new VotingSimulator(0);
+    boolean divergente = false;
+    try {
+      System.out.println("\nSIMULAÇÃO DE ESCALA");
+      System.out.println("  nós |   votos | falha            | votos/s   | contagem | p50 (ms) | p99 (ms) | total   | resultado");
+      for (String n : escala) {
+        Relatorio relatorio = simulador.executar(Integer.parseInt(n.trim()), votos, falha);
+        System.out.println(relatorio);
+        divergente |= !relatorio.isCorreto();
+      }
+    } finally {
+      simulador.close();
+    }
+    // Threads de eleição/consulta de nós derrubados não impedem a saída;
+    // um resultado divergente falha a execução (scripts e CI)
+    System.exit(divergente ? 1 : 0);
+  }
+}
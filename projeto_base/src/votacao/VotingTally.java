@@ -0,0 +1,668 @@
+package src.votacao;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * Apuração por dimensão (seção, região, questão) e candidato
+ * Dimensões e candidatos são internados em índices inteiros e cada dimensão
+ * guarda uma coluna de contagens indexada pelo candidato, então contar, somar
+ * parciais e ordenar não criam objetos por voto. A dimensão total ("") recebe
+ * todos os votos e mantém o formato "A=3;B=1" já publicado pelos nós
+ *
+ * Formato do voto: "candidato" ou "regiao=Norte,secao=12@candidato"
+ * Empates são desfeitos pela ordem alfabética do candidato
+ */
+public class VotingTally {
+
+  /** Dimensão que recebe todos os votos */
+  public static final String TOTAL = "";
+
+  /** Combinações de dimensões guardadas já interpretadas */
+  private static final int LIMITE_CACHE = 1 << 16;
+
+  /** Acima deste tamanho as colunas são publicadas comprimidas (jute.maxbuffer é 1 MB) */
+  private static final int LIMITE_TEXTO = 8 * 1024;
+
+  private final Map<String, Integer> idsDimensao = new HashMap<>();
+  private final List<String> dimensoes = new ArrayList<>();
+  private final Map<String, Integer> idsCandidato = new HashMap<>();
+  private final List<String> candidatos = new ArrayList<>();
+
+  // colunas[d][c] = votos do candidato c na dimensão d
+  private int[][] colunas = new int[4][];
+
+  // "regiao=Norte,secao=12" -> índices das dimensões
+  private final Map<String, int[]> cache = new HashMap<>();
+
+  public VotingTally() {
+    dimensao(TOTAL);
+  }
+
+  /**
+   * Conta um voto no total e em cada uma das suas dimensões
+   *
+   * @param voto "candidato" ou "dim=valor,...@candidato"
+   */
+  public synchronized void adicionar(String voto) {
+    int arroba = voto.lastIndexOf('@');
+    int candidato = candidato(arroba < 0 ? voto : voto.substring(arroba + 1));
+    incrementar(0, candidato, 1);
+    if (arroba < 0) {
+      return;
+    }
+    // Poucas combinações de dimensões se repetem em muitos votos
+    String prefixo = voto.substring(0, arroba);
+    int[] ids = cache.get(prefixo);
+    if (ids == null) {
+      ids = interpretar(prefixo);
+      if (cache.size() >= LIMITE_CACHE) {
+        cache.clear();
+      }
+      cache.put(prefixo, ids);
+    }
+    for (int dimensao : ids) {
+      incrementar(dimensao, candidato, 1);
+    }
+  }
+
+  /** Soma votos de um candidato em uma dimensão (sem passar pelo total) */
+  public synchronized void adicionar(String dimensao, String candidato, int votos) {
+    if (votos != 0) {
+      incrementar(dimensao(dimensao), candidato(candidato), votos);
+    }
+  }
+
+  /** Soma uma apuração parcial a esta */
+  public void somar(VotingTally outra) {
+    int[][] colunasOutra;
+    List<String> dimensoesOutra;
+    List<String> candidatosOutra;
+    synchronized (outra) {
+      colunasOutra = new int[outra.dimensoes.size()][];
+      for (int d = 0; d < colunasOutra.length; d++) {
+        colunasOutra[d] = outra.colunas[d] == null ? null : outra.colunas[d].clone();
+      }
+      dimensoesOutra = new ArrayList<>(outra.dimensoes);
+      candidatosOutra = new ArrayList<>(outra.candidatos);
+    }
+
+    synchronized (this) {
+      // Traduz os índices da outra apuração uma única vez por candidato
+      int[] traducao = new int[candidatosOutra.size()];
+      for (int c = 0; c < traducao.length; c++) {
+        traducao[c] = candidato(candidatosOutra.get(c));
+      }
+      for (int d = 0; d < colunasOutra.length; d++) {
+        int[] coluna = colunasOutra[d];
+        if (coluna == null) {
+          continue;
+        }
+        int destino = dimensao(dimensoesOutra.get(d));
+        for (int c = 0; c < coluna.length; c++) {
+          if (coluna[c] != 0) {
+            incrementar(destino, traducao[c], coluna[c]);
+          }
+        }
+      }
+    }
+  }
+
+  /** Votos de um candidato em uma dimensão */
+  public synchronized int votos(String dimensao, String candidato) {
+    Integer d = idsDimensao.get(dimensao);
+    Integer c = idsCandidato.get(candidato);
+    if (d == null || c == null || colunas[d] == null || c >= colunas[d].length) {
+      return 0;
+    }
+    return colunas[d][c];
+  }
+
+  /** Total de votos contados */
+  public synchronized long total() {
+    long total = 0;
+    if (colunas[0] != null) {
+      for (int v : colunas[0]) {
+        total += v;
+      }
+    }
+    return total;
+  }
+
+  /** Dimensões com votos, exceto o total, em ordem alfabética */
+  public synchronized List<String> getDimensoes() {
+    List<String> lista = new ArrayList<>();
+    for (int d = 1; d < dimensoes.size(); d++) {
+      if (colunas[d] != null) {
+        lista.add(dimensoes.get(d));
+      }
+    }
+    Collections.sort(lista);
+    return lista;
+  }
+
+  /** Contagem total por candidato, no formato usado pelo restante do sistema */
+  public synchronized Map<String, Integer> contagem() {
+    return contagem(TOTAL);
+  }
+
+  /** Contagem por candidato em uma dimensão */
+  public synchronized Map<String, Integer> contagem(String dimensao) {
+    Map<String, Integer> m = new TreeMap<>();
+    Integer d = idsDimensao.get(dimensao);
+    if (d == null || colunas[d] == null) {
+      return m;
+    }
+    int[] coluna = colunas[d];
+    for (int c = 0; c < coluna.length; c++) {
+      if (coluna[c] != 0) {
+        m.put(candidatos.get(c), coluna[c]);
+      }
+    }
+    return m;
+  }
+
+  /**
+   * Os k candidatos mais votados de uma dimensão, do primeiro ao último
+   * Usa um heap de tamanho k: O(n log k) para n candidatos
+   */
+  public synchronized List<Posicao> topK(String dimensao, int k) {
+    Integer d = idsDimensao.get(dimensao);
+    if (d == null || colunas[d] == null || k <= 0) {
+      return new ArrayList<>();
+    }
+    int[] coluna = colunas[d];
+    // O pior dos k melhores fica no topo do heap
+    PriorityQueue<Integer> heap = new PriorityQueue<>(k + 1, (a, b) -> -comparar(coluna, a, b));
+    for (int c = 0; c < coluna.length; c++) {
+      if (coluna[c] == 0) {
+        continue;
+      }
+      if (heap.size() < k) {
+        heap.add(c);
+      } else if (comparar(coluna, c, heap.peek()) < 0) {
+        heap.poll();
+        heap.add(c);
+      }
+    }
+    List<Posicao> ranking = new ArrayList<>(heap.size());
+    while (!heap.isEmpty()) {
+      int c = heap.poll();
+      ranking.add(new Posicao(candidatos.get(c), coluna[c]));
+    }
+    Collections.reverse(ranking);
+    return ranking;
+  }
+
+  /** Vencedor de uma dimensão (null se não houver votos) */
+  public Posicao vencedor(String dimensao) {
+    List<Posicao> primeiro = topK(dimensao, 1);
+    return primeiro.isEmpty() ? null : primeiro.get(0);
+  }
+
+  /** Vencedor de cada dimensão, exceto o total, em ordem alfabética de dimensão */
+  public synchronized Map<String, Posicao> vencedores() {
+    Map<String, Posicao> m = new TreeMap<>();
+    for (String dimensao : getDimensoes()) {
+      m.put(dimensao, vencedor(dimensao));
+    }
+    return m;
+  }
+
+  /**
+   * Primeira linha publicada: contagem total "A=3;B=1", na ordem dos índices
+   * A posição de cada candidato nessa linha é o índice usado por {@link #serializarDimensoes}
+   */
+  public synchronized String serializarTotal() {
+    StringBuilder sb = new StringBuilder();
+    int[] coluna = colunas[0];
+    if (coluna != null) {
+      for (int c = 0; c < coluna.length; c++) {
+        if (coluna[c] != 0) {
+          if (sb.length() > 0)
+            sb.append(';');
+          sb.append(candidatos.get(c)).append('=').append(coluna[c]);
+        }
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Colunas por dimensão em formato esparso, com candidatos pela posição na
+   * linha do total: "secao=1:0=3,1=1;secao=2:0=2" (null se só há o total)
+   */
+  public synchronized String serializarDimensoes() {
+    int[] posicoes = posicoesNoTotal();
+    StringBuilder sb = new StringBuilder();
+    for (int d = 1; d < dimensoes.size(); d++) {
+      int[] coluna = colunas[d];
+      if (coluna == null) {
+        continue;
+      }
+      if (sb.length() > 0)
+        sb.append(';');
+      sb.append(dimensoes.get(d)).append(':');
+      boolean primeiro = true;
+      for (int c = 0; c < coluna.length; c++) {
+        if (coluna[c] != 0 && posicoes[c] >= 0) {
+          if (!primeiro)
+            sb.append(',');
+          sb.append(posicoes[c]).append('=').append(coluna[c]);
+          primeiro = false;
+        }
+      }
+    }
+    return sb.length() == 0 ? null : sb.toString();
+  }
+
+  /**
+   * Inclui as colunas por dimensão nos metadados publicados: em texto
+   * ("dimensoes") quando pequenas; acima de cerca de {@link #LIMITE_TEXTO}, em binário
+   * ("dimensoesz": posições em delta e contagens em varint, Deflate e Base64)
+   */
+  public synchronized void publicarDimensoes(Map<String, String> metadados) {
+    // Estimativa do texto: cerca de 8 bytes por par "posição=votos"
+    long entradasTotais = 0;
+    for (int d = 1; d < dimensoes.size(); d++) {
+      if (colunas[d] != null) {
+        for (int v : colunas[d]) {
+          if (v != 0) {
+            entradasTotais++;
+          }
+        }
+      }
+    }
+    if (entradasTotais * 8 <= LIMITE_TEXTO) {
+      String texto = serializarDimensoes();
+      if (texto != null) {
+        metadados.put("dimensoes", texto);
+      }
+      return;
+    }
+
+    int[] posicoes = posicoesNoTotal();
+    ByteArrayOutputStream binario = new ByteArrayOutputStream((int) Math.min(entradasTotais * 3, 1 << 24));
+    for (int d = 1; d < dimensoes.size(); d++) {
+      int[] coluna = colunas[d];
+      if (coluna == null) {
+        continue;
+      }
+      byte[] nome = dimensoes.get(d).getBytes(StandardCharsets.UTF_8);
+      escreverVarint(binario, nome.length);
+      binario.write(nome, 0, nome.length);
+      int entradas = 0;
+      for (int c = 0; c < coluna.length; c++) {
+        if (coluna[c] != 0 && posicoes[c] >= 0) {
+          entradas++;
+        }
+      }
+      escreverVarint(binario, entradas);
+      // Posições crescentes: grava a distância para a anterior
+      int anterior = -1;
+      for (int c = 0; c < coluna.length; c++) {
+        if (coluna[c] != 0 && posicoes[c] >= 0) {
+          escreverVarint(binario, posicoes[c] - anterior);
+          escreverVarint(binario, coluna[c]);
+          anterior = posicoes[c];
+        }
+      }
+    }
+
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    deflater.setInput(binario.toByteArray());
+    deflater.finish();
+    ByteArrayOutputStream saida = new ByteArrayOutputStream(binario.size() / 2);
+    byte[] buffer = new byte[8192];
+    while (!deflater.finished()) {
+      saida.write(buffer, 0, deflater.deflate(buffer));
+    }
+    deflater.end();
+    metadados.put("dimensoesz", Base64.getEncoder().encodeToString(saida.toByteArray()));
+  }
+
+  /**
+   * Reconstrói uma apuração publicada: a contagem total da primeira linha e,
+   * se houver, as colunas publicadas por {@link #publicarDimensoes}
+   *
+   * @param path Znode de onde os dados vieram (citado no erro)
+   * @throws KeeperException.DataInconsistencyException se as colunas
+   *                                                    binárias estão truncadas ou corrompidas
+   */
+  public static VotingTally desserializar(byte[] data, String path) throws KeeperException {
+    VotingTally apuracao = new VotingTally();
+    if (data == null || data.length == 0) {
+      return apuracao;
+    }
+    String s = new String(data, StandardCharsets.UTF_8);
+    int fimLinha = s.indexOf('\n');
+    String linhaTotal = fimLinha >= 0 ? s.substring(0, fimLinha) : s;
+
+    // A ordem da linha do total é o dicionário de candidatos das dimensões:
+    // em uma apuração nova, a posição na linha é o próprio índice do candidato
+    for (String part : linhaTotal.split(";")) {
+      String[] kv = part.split("=", 2);
+      if (kv.length == 2) {
+        try {
+          apuracao.adicionar(TOTAL, kv[0], Integer.parseInt(kv[1]));
+        } catch (NumberFormatException ignore) {
+        }
+      }
+    }
+    int tamanhoDicionario = apuracao.candidatos.size();
+
+    Map<String, String> metadados = SistemaVotacao.deserializeMetadados(data);
+    if (metadados.containsKey("dimensoesz")) {
+      try {
+        apuracao.lerBinario(metadados.get("dimensoesz"), tamanhoDicionario);
+      } catch (DataFormatException e) {
+        System.err.println("Colunas por dimensão corrompidas em " + path + ": " + e.getMessage());
+        throw KeeperException.create(KeeperException.Code.DATAINCONSISTENCY, path);
+      }
+      return apuracao;
+    }
+    String dimensoes = metadados.get("dimensoes");
+    if (dimensoes == null) {
+      return apuracao;
+    }
+    for (String coluna : dimensoes.split(";")) {
+      int separador = coluna.lastIndexOf(':');
+      if (separador < 0) {
+        continue;
+      }
+      int dimensao = apuracao.dimensao(coluna.substring(0, separador));
+      for (String par : coluna.substring(separador + 1).split(",")) {
+        String[] kv = par.split("=", 2);
+        if (kv.length != 2) {
+          continue;
+        }
+        try {
+          int posicao = Integer.parseInt(kv[0]);
+          if (posicao >= 0 && posicao < tamanhoDicionario) {
+            apuracao.incrementar(dimensao, posicao, Integer.parseInt(kv[1]));
+          }
+        } catch (NumberFormatException ignore) {
+        }
+      }
+    }
+    return apuracao;
+  }
+
+  /** Candidato de um voto, sem as dimensões */
+  public static String candidatoDoVoto(String voto) {
+    int arroba = voto.lastIndexOf('@');
+    return arroba < 0 ? voto : voto.substring(arroba + 1);
+  }
+
+  @Override
+  public String toString() {
+    return contagem().toString();
+  }
+
+  /* ====================== Internos ====================== */
+
+  /** Posição de cada candidato na linha do total (-1 se não aparece) */
+  private int[] posicoesNoTotal() {
+    int[] posicoes = new int[candidatos.size()];
+    Arrays.fill(posicoes, -1);
+    int proxima = 0;
+    int[] total = colunas[0];
+    for (int c = 0; total != null && c < total.length; c++) {
+      if (total[c] != 0) {
+        posicoes[c] = proxima++;
+      }
+    }
+    return posicoes;
+  }
+
+  /** Lê as colunas binárias de {@link #publicarDimensoes} */
+  private void lerBinario(String base64, int tamanhoDicionario) throws DataFormatException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(Base64.getDecoder().decode(base64));
+    } catch (IllegalArgumentException e) {
+      inflater.end();
+      throw new DataFormatException("Base64 inválido");
+    }
+    ByteArrayOutputStream saida = new ByteArrayOutputStream(base64.length() * 2);
+    byte[] buffer = new byte[8192];
+    try {
+      while (!inflater.finished()) {
+        int n = inflater.inflate(buffer);
+        if (n == 0 && inflater.needsInput()) {
+          throw new DataFormatException("Deflate truncado");
+        }
+        saida.write(buffer, 0, n);
+      }
+    } finally {
+      inflater.end();
+    }
+
+    byte[] binario = saida.toByteArray();
+    int[] cursor = { 0 };
+    while (cursor[0] < binario.length) {
+      int tamanhoNome = lerVarint(binario, cursor);
+      if (tamanhoNome > binario.length - cursor[0]) {
+        throw new DataFormatException("Nome de dimensão truncado na posição " + cursor[0]);
+      }
+      int dimensao = dimensao(new String(binario, cursor[0], tamanhoNome, StandardCharsets.UTF_8));
+      cursor[0] += tamanhoNome;
+      int entradas = lerVarint(binario, cursor);
+      if (entradas > tamanhoDicionario) {
+        throw new DataFormatException("Coluna com " + entradas + " entradas para " + tamanhoDicionario + " candidatos");
+      }
+      int posicao = -1;
+      for (int i = 0; i < entradas; i++) {
+        // Posições crescentes dentro do total: confere antes de somar
+        int distancia = lerVarint(binario, cursor);
+        if (distancia == 0 || distancia > tamanhoDicionario - 1 - posicao) {
+          throw new DataFormatException("Posição fora do total antes da posição " + cursor[0]);
+        }
+        posicao += distancia;
+        incrementar(dimensao, posicao, lerVarint(binario, cursor));
+      }
+    }
+  }
+
+  private static void escreverVarint(ByteArrayOutputStream saida, int valor) {
+    while ((valor & ~0x7F) != 0) {
+      saida.write((valor & 0x7F) | 0x80);
+      valor >>>= 7;
+    }
+    saida.write(valor);
+  }
+
+  /** Lê um varint não negativo de até 31 bits: no máximo 5 bytes, o último com 3 bits */
+  private static int lerVarint(byte[] binario, int[] cursor) throws DataFormatException {
+    int valor = 0;
+    for (int deslocamento = 0; deslocamento < 35; deslocamento += 7) {
+      if (cursor[0] >= binario.length) {
+        throw new DataFormatException("Varint truncado na posição " + cursor[0]);
+      }
+      byte b = binario[cursor[0]++];
+      if (deslocamento == 28 && (b & 0xF8) != 0) {
+        break;
+      }
+      valor |= (b & 0x7F) << deslocamento;
+      if ((b & 0x80) == 0) {
+        return valor;
+      }
+    }
+    throw new DataFormatException("Varint inválido antes da posição " + cursor[0]);
+  }
+
+  /** Melhor primeiro: mais votos, depois ordem alfabética do candidato */
+  private int comparar(int[] coluna, int a, int b) {
+    if (coluna[a] != coluna[b]) {
+      return Integer.compare(coluna[b], coluna[a]);
+    }
+    return candidatos.get(a).compareTo(candidatos.get(b));
+  }
+
+  private int[] interpretar(String prefixo) {
+    String[] partes = prefixo.split(",");
+    int[] ids = new int[partes.length];
+    int n = 0;
+    for (String parte : partes) {
+      if (!parte.isEmpty()) {
+        ids[n++] = dimensao(parte);
+      }
+    }
+    return n == ids.length ? ids : Arrays.copyOf(ids, n);
+  }
+
+  private int dimensao(String nome) {
+    Integer id = idsDimensao.get(nome);
+    if (id == null) {
+      id = dimensoes.size();
+      idsDimensao.put(nome, id);
+      dimensoes.add(nome);
+      if (id == colunas.length) {
+        colunas = Arrays.copyOf(colunas, colunas.length * 2);
+      }
+    }
+    return id;
+  }
+
+  private int candidato(String nome) {
+    Integer id = idsCandidato.get(nome);
+    if (id == null) {
+      id = candidatos.size();
+      idsCandidato.put(nome, id);
+      candidatos.add(nome);
+    }
+    return id;
+  }
+
+  private void incrementar(int dimensao, int candidato, int votos) {
+    int[] coluna = colunas[dimensao];
+    if (coluna == null) {
+      coluna = new int[Math.max(8, candidatos.size())];
+      colunas[dimensao] = coluna;
+    } else if (candidato >= coluna.length) {
+      coluna = Arrays.copyOf(coluna, Math.max(candidato + 1, coluna.length * 2));
+      colunas[dimensao] = coluna;
+    }
+    coluna[candidato] += votos;
+  }
+
+  /**
+   * Candidato e votos em um ranking
+   */
+  public static final class Posicao {
+    private final String candidato;
+    private final int votos;
+
+    Posicao(String candidato, int votos) {
+      this.candidato = candidato;
+      this.votos = votos;
+    }
+
+    public String getCandidato() {
+      return candidato;
+    }
+
+    public int getVotos() {
+      return votos;
+    }
+
+    @Override
+    public String toString() {
+      return candidato + "=" + votos;
+    }
+  }
+
+  /**
+   * Compara a apuração por colunas com um mapa por candidato e mede
+   * publicação, junção de parciais e top-K
+   * Uso: VotingTally [votos] [candidatos] [secoes] [nos]
+   */
+  public static void main(String[] args) throws KeeperException {
+    int totalVotos = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+    int totalCandidatos = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    int secoes = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+    int nos = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+    // Poucos candidatos concentram os votos, como em uma eleição real
+    Random random = new Random(42);
+    String[] votos = new String[totalVotos];
+    for (int i = 0; i < totalVotos; i++) {
+      int candidato = (int) Math.min(totalCandidatos - 1, Math.abs(random.nextGaussian()) * totalCandidatos / 8);
+      int secao = random.nextInt(secoes);
+      votos[i] = "regiao=" + (secao % 5) + ",secao=" + secao + "@C" + candidato;
+    }
+
+    // Mapa plano por (dimensão, candidato): a abordagem anterior estendida
+    long inicio = System.nanoTime();
+    Map<String, Integer> plano = new HashMap<>();
+    for (String voto : votos) {
+      String candidato = candidatoDoVoto(voto);
+      plano.merge(candidato, 1, Integer::sum);
+      for (String dimensao : voto.substring(0, voto.lastIndexOf('@')).split(",")) {
+        plano.merge(dimensao + "|" + candidato, 1, Integer::sum);
+      }
+    }
+    double nsMapa = (System.nanoTime() - inicio) / (double) totalVotos;
+
+    // Colunas: cada nó conta sua parte, publica e o coordenador junta
+    inicio = System.nanoTime();
+    VotingTally[] parciais = new VotingTally[nos];
+    for (int n = 0; n < nos; n++) {
+      parciais[n] = new VotingTally();
+    }
+    for (int i = 0; i < totalVotos; i++) {
+      parciais[i % nos].adicionar(votos[i]);
+    }
+    double nsColunas = (System.nanoTime() - inicio) / (double) totalVotos;
+
+    inicio = System.nanoTime();
+    long bytes = 0;
+    VotingTally global = new VotingTally();
+    for (int n = 0; n < nos; n++) {
+      Map<String, String> metadados = new HashMap<>();
+      parciais[n].publicarDimensoes(metadados);
+      StringBuilder sb = new StringBuilder(parciais[n].serializarTotal());
+      for (Map.Entry<String, String> e : metadados.entrySet()) {
+        sb.append('\n').append(e.getKey()).append('=').append(e.getValue());
+      }
+      byte[] publicado = sb.toString().getBytes(StandardCharsets.UTF_8);
+      bytes += publicado.length;
+      global.somar(desserializar(publicado, "parcial do nó " + n));
+    }
+    double msJuncao = (System.nanoTime() - inicio) / 1e6;
+
+    inicio = System.nanoTime();
+    List<Posicao> top = global.topK(TOTAL, 10);
+    Map<String, Posicao> vencedores = global.vencedores();
+    double msConsulta = (System.nanoTime() - inicio) / 1e6;
+
+    boolean confere = global.total() == totalVotos;
+    for (Map.Entry<String, Integer> e : global.contagem().entrySet()) {
+      confere &= e.getValue().equals(plano.get(e.getKey()));
+    }
+    Posicao norte = global.vencedor("regiao=0");
+    confere &= norte.getVotos() == plano.get("regiao=0|" + norte.getCandidato());
+
+    System.out.printf("Contagem: mapa plano %.0f ns/voto, colunas %.0f ns/voto%n", nsMapa, nsColunas);
+    System.out.printf("Publicação: %d nós, %.1f KB por nó em média, junção em %.1f ms%n", nos,
+        bytes / 1024.0 / nos, msJuncao);
+    System.out.printf("Consulta: top-10 e vencedores de %d dimensões em %.1f ms%n", vencedores.size(), msConsulta);
+    System.out.println("Top-3: " + top.subList(0, Math.min(3, top.size())) + " | regiao=0: " + norte
+        + " | confere: " + confere);
+  }
+}
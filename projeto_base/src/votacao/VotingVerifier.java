@@ -0,0 +1,254 @@
+package src.votacao;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Verificação de integridade dos votos antes da contagem
+ * Cada voto carrega um HMAC-SHA256 anexado na ingestão, no formato
+ * "idVoto|candidato|mac"; os lotes são verificados em paralelo em um
+ * ForkJoinPool e a contagem resultante não depende da ordem dos votos
+ */
+public class VotingVerifier {
+
+  /** Variável de ambiente (ou propriedade votacao.chave) com a chave HMAC */
+  public static final String VARIAVEL_CHAVE = "VOTACAO_CHAVE_HMAC";
+
+  private static final String ALGORITMO = "HmacSHA256";
+
+  /**
+   * Abaixo deste tamanho o lote é verificado sem dividir. Bem menor que o
+   * lote de consumo (64 votos), que assim se divide em 4 tarefas
+   */
+  private static final int LIMIAR_DIVISAO = 16;
+
+  private final SecretKeySpec chave;
+  private final ForkJoinPool pool;
+  private final ThreadLocal<Mac> macs;
+
+  // Estatísticas acumuladas
+  private final AtomicLong votosVerificados = new AtomicLong();
+  private final AtomicLong nanosVerificacao = new AtomicLong();
+
+  /**
+   * Construtor do verificador
+   *
+   * @param chave Chave secreta compartilhada com a ingestão
+   * @param pool  Pool onde os lotes são verificados
+   */
+  public VotingVerifier(byte[] chave, ForkJoinPool pool) {
+    this.chave = new SecretKeySpec(chave, ALGORITMO);
+    this.pool = pool;
+    // Mac não é thread-safe: uma instância por thread do pool
+    this.macs = ThreadLocal.withInitial(() -> {
+      try {
+        Mac mac = Mac.getInstance(ALGORITMO);
+        mac.init(this.chave);
+        return mac;
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException("HMAC indisponível", e);
+      }
+    });
+  }
+
+  /**
+   * Verificador configurado pelo ambiente, ou null se não houver chave
+   */
+  public static VotingVerifier doAmbiente() {
+    String chave = System.getProperty("votacao.chave", System.getenv(VARIAVEL_CHAVE));
+    if (chave == null || chave.isEmpty()) {
+      return null;
+    }
+    return new VotingVerifier(chave.getBytes(StandardCharsets.UTF_8), ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Monta o envelope assinado de um voto (usado na ingestão)
+   *
+   * @param idVoto    Identificador único do voto
+   * @param candidato Candidato escolhido
+   */
+  public String assinar(String idVoto, String candidato) {
+    String conteudo = idVoto + "|" + candidato;
+    return conteudo + "|" + Base64.getUrlEncoder().withoutPadding().encodeToString(calcularMac(conteudo));
+  }
+
+  /**
+   * Verifica um lote de votos em paralelo
+   *
+   * @param lote Votos lidos da fila
+   * @return Candidato e idVoto de cada voto válido e lista dos inválidos
+   */
+  public Resultado verificar(List<VotingQueue.Item> lote) {
+    long inicio = System.nanoTime();
+    String[] candidatos = new String[lote.size()];
+    String[] ids = new String[lote.size()];
+    Resultado resultado = pool.invoke(new Tarefa(lote, candidatos, ids, 0, lote.size()));
+    resultado.candidatos = candidatos;
+    resultado.ids = ids;
+    nanosVerificacao.addAndGet(System.nanoTime() - inicio);
+    votosVerificados.addAndGet(lote.size());
+    return resultado;
+  }
+
+  /**
+   * Resumo da vazão de verificação (total e por núcleo do pool)
+   */
+  public String estatisticas() {
+    long votos = votosVerificados.get();
+    double segundos = nanosVerificacao.get() / 1e9;
+    if (votos == 0 || segundos == 0) {
+      return "nenhum voto verificado";
+    }
+    double vazao = votos / segundos;
+    return String.format("%d votos em %.3fs | %.0f votos/s | %.0f votos/s por núcleo (%d núcleos)", votos,
+        segundos, vazao, vazao / pool.getParallelism(), pool.getParallelism());
+  }
+
+  /** Verifica um único envelope; retorna o candidato ou null se inválido */
+  String verificarVoto(String envelope) {
+    int fimId = envelope.indexOf('|');
+    int fimCandidato = envelope.lastIndexOf('|');
+    if (fimId <= 0 || fimCandidato <= fimId + 1) {
+      return null;
+    }
+
+    byte[] recebido;
+    try {
+      recebido = Base64.getUrlDecoder().decode(envelope.substring(fimCandidato + 1));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+
+    byte[] esperado = calcularMac(envelope.substring(0, fimCandidato));
+    if (!MessageDigest.isEqual(esperado, recebido)) {
+      return null;
+    }
+    return envelope.substring(fimId + 1, fimCandidato);
+  }
+
+  private byte[] calcularMac(String conteudo) {
+    return macs.get().doFinal(conteudo.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Resultado (parcial ou total) da verificação de um lote
+   */
+  public static final class Resultado {
+    private final List<VotingQueue.Item> invalidos = new ArrayList<>();
+    private String[] candidatos;
+    private String[] ids;
+
+    /** Candidato de cada voto do lote, na ordem do lote (null se inválido) */
+    public String[] getCandidatos() {
+      return candidatos;
+    }
+
+    /** idVoto assinado de cada voto do lote, na ordem do lote (null se inválido) */
+    public String[] getIds() {
+      return ids;
+    }
+
+    /** Votos rejeitados na verificação */
+    public List<VotingQueue.Item> getInvalidos() {
+      return invalidos;
+    }
+
+    private Resultado juntar(Resultado outro) {
+      invalidos.addAll(outro.invalidos);
+      return this;
+    }
+  }
+
+  /** Divide o lote ao meio até o limiar e junta os resultados parciais */
+  private final class Tarefa extends RecursiveTask<Resultado> {
+    private static final long serialVersionUID = 1L;
+
+    private final List<VotingQueue.Item> lote;
+    private final String[] candidatos;
+    private final String[] ids;
+    private final int inicio;
+    private final int fim;
+
+    Tarefa(List<VotingQueue.Item> lote, String[] candidatos, String[] ids, int inicio, int fim) {
+      this.lote = lote;
+      this.candidatos = candidatos;
+      this.ids = ids;
+      this.inicio = inicio;
+      this.fim = fim;
+    }
+
+    @Override
+    protected Resultado compute() {
+      if (fim - inicio <= LIMIAR_DIVISAO) {
+        Resultado parcial = new Resultado();
+        for (int i = inicio; i < fim; i++) {
+          VotingQueue.Item item = lote.get(i);
+          String candidato = verificarVoto(item.getVoto());
+          candidatos[i] = candidato;
+          if (candidato == null) {
+            parcial.invalidos.add(item);
+          } else {
+            ids[i] = item.getVoto().substring(0, item.getVoto().indexOf('|'));
+          }
+        }
+        return parcial;
+      }
+
+      int meio = (inicio + fim) >>> 1;
+      Tarefa esquerda = new Tarefa(lote, candidatos, ids, inicio, meio);
+      esquerda.fork();
+      Resultado direita = new Tarefa(lote, candidatos, ids, meio, fim).compute();
+      return esquerda.join().juntar(direita);
+    }
+  }
+
+  /**
+   * Mede a vazão de verificação por núcleo com votos sintéticos
+   * Uso: VotingVerifier [votos] [tamanhoLote]
+   */
+  public static void main(String[] args) {
+    int totalVotos = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+    int tamanhoLote = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+    byte[] chave = "chave-de-teste".getBytes(StandardCharsets.UTF_8);
+    String[] candidatos = { "A", "B", "C" };
+
+    List<VotingQueue.Item> votos = new ArrayList<>(totalVotos);
+    VotingVerifier assinador = new VotingVerifier(chave, ForkJoinPool.commonPool());
+    for (int i = 0; i < totalVotos; i++) {
+      String envelope = assinador.assinar("v" + i, candidatos[i % candidatos.length]);
+      if (i % 100 == 0) {
+        envelope = envelope.replace("|A|", "|B|"); // adulterados
+      }
+      votos.add(new VotingQueue.Item("voto-" + i, envelope));
+    }
+
+    int nucleos = Runtime.getRuntime().availableProcessors();
+    for (int paralelismo = 1; paralelismo <= nucleos; paralelismo *= 2) {
+      ForkJoinPool pool = new ForkJoinPool(paralelismo);
+      VotingVerifier verificador = new VotingVerifier(chave, pool);
+      verificador.verificar(votos.subList(0, Math.min(tamanhoLote * 4, totalVotos))); // aquecimento
+      verificador.votosVerificados.set(0);
+      verificador.nanosVerificacao.set(0);
+
+      int invalidos = 0;
+      for (int i = 0; i < totalVotos; i += tamanhoLote) {
+        invalidos += verificador.verificar(votos.subList(i, Math.min(i + tamanhoLote, totalVotos)))
+            .getInvalidos().size();
+      }
+      System.out.println("Paralelismo " + paralelismo + ": " + verificador.estatisticas() + " | inválidos: "
+          + invalidos);
+      pool.shutdown();
+    }
+  }
+}